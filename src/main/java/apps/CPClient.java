@@ -33,6 +33,12 @@ public class CPClient {
         try {
             cp = new CPProtocol(InetAddress.getByName(SERVER_NAME), CPCommandServer.COMMAND_SERVER_PORT, phy);
             cp.setCookieServer(InetAddress.getByName(SERVER_NAME), CPCookieServer.COOKIE_SERVER_PORT);
+            // -Dcp.cookieServers=host:port,... spreads the cookie requests over a sharded cookie service
+            ConsistentHashRing shards = CPServerConfig.openCookieRing();
+            if (shards != null)
+                cp.setCookieShards(shards);
+            // -Dcp.format=binary selects the compact binary wire format
+            cp.setBinaryFormat("binary".equals(System.getProperty("cp.format")));
         } catch (Exception e) {
             e.printStackTrace();
             return;
@@ -2,37 +2,65 @@ package apps;
 
 import core.Msg;
 import cp.CPProtocol;
+import cp.ConsistentHashRing;
 import exceptions.IWProtocolException;
 import phy.PhyProtocol;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.Executors;
 
 public class CPCommandServer {
     protected static final int COMMAND_SERVER_PORT = 2000;
 
     public static void main(String[] args) {
-        // configure physical layer (UDP)
-        PhyProtocol phy = new PhyProtocol(COMMAND_SERVER_PORT);
+        // configure physical layer (UDP), one endpoint per worker
+        PhyProtocol[] phys = CPServerConfig.openWorkerPhys(COMMAND_SERVER_PORT);
 
         // configure command protocol in COMMAND role
         CPProtocol cp;
         try {
-            cp = new CPProtocol(phy, false);
+            cp = new CPProtocol(phys[0], false);
+            cp.setBinaryFormat(CPServerConfig.BINARY);
+            cp.setCookieSigner(CPServerConfig.openCookieSigner());
+            if (CPServerConfig.VERIFY_BATCH > 0)
+                cp.setVerificationBatching(CPServerConfig.VERIFY_BATCH, CPServerConfig.VERIFY_DELAY);
+            cp.setVerifiedCookieCache(CPServerConfig.VERIFY_CACHE);
+            if (CPServerConfig.VIRTUAL_THREADS)
+                cp.setCommandExecutor(Executors.newVirtualThreadPerTaskExecutor());
 
             cp.setCookieServer(InetAddress.getByName("localhost"), CPCookieServer.COOKIE_SERVER_PORT);
+            ConsistentHashRing shards = CPServerConfig.openCookieRing();
+            if (shards != null)
+                cp.setCookieShards(shards);
             System.out.println("--- Command Server Started on Port " + COMMAND_SERVER_PORT + " ---");
-            System.out.println("--- Linked to Cookie Server on Port " + CPCookieServer.COOKIE_SERVER_PORT + " ---");
+            if (shards != null)
+                System.out.println("--- Linked to " + shards.size() + " Cookie Server Shards ---");
+            else
+                System.out.println("--- Linked to Cookie Server on Port " + CPCookieServer.COOKIE_SERVER_PORT + " ---");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Failed to initialize CPProtocol: " + e.getMessage());
+            return;
         } catch (Exception e) {
             System.err.println("Failed to initialize CPProtocol");
             return;
         }
 
-        // processing loop
+        // additional workers share the pending commands of the first instance
+        for (int i = 1; i < phys.length; i++) {
+            CPProtocol worker = new CPProtocol(phys[i], cp);
+            new Thread(() -> serve(worker), "command-worker-" + i).start();
+        }
+
+        serve(cp);
+    }
+
+    // processing loop
+    private static void serve(CPProtocol cp) {
         while (true) {
             try {
-                // receive() uses commandProcess() to process the commands received from users
-                cp.receive();
+                // receiveBatch() drains all queued datagrams and uses commandProcess() to process the commands received from users
+                cp.receiveBatch(CPServerConfig.BATCH_SIZE);
             } catch (IOException e) {
                 System.out.println("IO Error during command processing: " + e.getMessage());
             } catch (IWProtocolException e) {
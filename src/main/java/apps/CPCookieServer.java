@@ -1,30 +1,60 @@
 package apps;
 
 import cp.CPProtocol;
+import cp.ConsistentHashRing;
 import exceptions.IWProtocolException;
 import phy.PhyProtocol;
 
 import java.io.IOException;
+import java.net.UnknownHostException;
 
 public class CPCookieServer {
     protected static final int COOKIE_SERVER_PORT = 3000;
 
     public static void main(String[] args) {
-        // Set up the virtual link protocol
-        PhyProtocol phy = new PhyProtocol(COOKIE_SERVER_PORT);
+        // Set up the virtual link protocol (one endpoint per worker)
+        int port;
+        ConsistentHashRing shards;
+        try {
+            shards = CPServerConfig.openCookieRing();
+            port = CPServerConfig.cookieServerPort();
+        } catch (UnknownHostException e) {
+            System.err.println("Invalid cp.cookieServers: unknown host " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        PhyProtocol[] phys = CPServerConfig.openWorkerPhys(port);
 
         // Set up command protocol
         CPProtocol cp;
         try {
-            cp = new CPProtocol(phy, true);
+            cp = new CPProtocol(phys[0], true);
+            cp.setBinaryFormat(CPServerConfig.BINARY);
+            cp.setCookieStore(CPServerConfig.openCookieStore());
+            cp.setCookieSigner(CPServerConfig.openCookieSigner());
+            // sharded -> only issue the cookie values owned by this shard
+            if (shards != null)
+                cp.setCookieShard(shards, CPServerConfig.COOKIE_SHARD);
         } catch (Exception e) {
             return;
         }
 
+        // additional workers share the cookie table of the first instance
+        for (int i = 1; i < phys.length; i++) {
+            CPProtocol worker = new CPProtocol(phys[i], cp);
+            new Thread(() -> serve(worker), "cookie-worker-" + i).start();
+        }
+
         // Start server processing
+        serve(cp);
+    }
+
+    private static void serve(CPProtocol cp) {
         while (true) {
             try {
-                cp.receive();
+                cp.receiveBatch(CPServerConfig.BATCH_SIZE);
             } catch (IOException e) {
                 System.out.println("IO error");
                 return;
@@ -0,0 +1,187 @@
+package apps;
+
+import core.Protocol;
+import cp.BoundedCookieStore;
+import cp.CPProtocol;
+import cp.ConsistentHashRing;
+import cp.CookieSigner;
+import cp.CookieStore;
+import cp.MapCookieStore;
+import cp.MappedCookieStore;
+import cp.PackedCookieStore;
+import cp.StripedCookieStore;
+import phy.NioPhyProtocol;
+import phy.PhyConfiguration;
+import phy.PhyProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Server options shared by the cookie and the command server
+ * Options are passed as system properties, e.g. java -Dcp.transport=nio apps.CPCookieServer
+ *   cp.transport : socket (default) | nio | nio-direct
+ *   cp.batch     : maximum number of datagrams processed per receive call (default 64, at least 1); only the
+ *                  nio transports drain several queued datagrams, socket receives one datagram per call
+ *   cp.format    : text (default) | binary -> format of the requests sent by the server,
+ *                  responses always use the format of the request
+ *   cp.workers   : number of receive threads (default 1), each with its own socket bound with
+ *                  SO_REUSEPORT and its own CPProtocol instance (implies the nio transport); without
+ *                  SO_REUSEPORT the workers take turns receiving from one channel. The state the workers
+ *                  share (cookie table, pending verifications, verified cookies) is striped
+ *   cp.virtualThreads : true -> the command server executes every command on its own virtual thread
+ *   cp.cookieStore    : bounded | packed | packed-direct | striped | striped-direct | mapped | map -> table of
+ *                       the issued cookies, bounded evicts a cookie (cp.cookiePolicy) when full instead of
+ *                       rejecting the client, packed stores IPv4 clients without objects per cookie (off-heap
+ *                       with -direct) and refuses other clients, striped splits it into separately locked
+ *                       stripes for several workers and keeps other clients in a map, mapped keeps the packed
+ *                       table in cp.cookieFile so cookies survive a restart
+ *                       (default: bounded with one worker, striped otherwise; with several workers the
+ *                       single lock stores bounded, packed and map are replaced by striped)
+ *   cp.cookieCapacity : maximum number of live cookies (default 20)
+ *   cp.cookiePolicy   : lru (default) | lfu | ttl -> cookie evicted by the bounded store when it is full
+ *   cp.cookieFile     : file of the mapped cookie table (default cookies.db)
+ *   cp.cookieServers  : sharded cookie service, comma separated host:port list of all cookie servers in the same
+ *                       order everywhere, e.g. localhost:3000,localhost:3001 (also read by the client)
+ *   cp.cookieShard    : index of this cookie server in cp.cookieServers, its port is taken from the list (default 0)
+ *   cp.verifyBatch    : command server, cookies per batch verification request (default 0 = one request per
+ *                       command, at most 24)
+ *   cp.verifyDelay    : command server, maximum time in ms a cookie waits for its batch (default 2)
+ *   cp.verifyCache    : command server, number of verified cookies accepted again without asking the cookie
+ *                       server (default 1024, 0 = ask for every command)
+ *   cp.cookieKey      : secret shared by cookie and command server -> stateless signed cookies, the command
+ *                       server verifies them itself (default: unset, cookies are stored and verified remotely)
+ */
+final class CPServerConfig {
+    static final String TRANSPORT = System.getProperty("cp.transport", "socket");
+    static final int BATCH_SIZE = Math.max(1, Integer.getInteger("cp.batch", 64));
+    static final boolean BINARY = "binary".equals(System.getProperty("cp.format"));
+    static final int WORKERS = Math.max(1, Integer.getInteger("cp.workers", 1));
+    static final boolean VIRTUAL_THREADS = Boolean.getBoolean("cp.virtualThreads");
+    static final String COOKIE_STORE = System.getProperty("cp.cookieStore", WORKERS > 1 ? "striped" : "bounded");
+    static final String COOKIE_POLICY = System.getProperty("cp.cookiePolicy", "lru");
+    static final int COOKIE_CAPACITY = Integer.getInteger("cp.cookieCapacity", 20);
+    static final String COOKIE_KEY = System.getProperty("cp.cookieKey");
+    static final int VERIFY_BATCH = Integer.getInteger("cp.verifyBatch", 0);
+    static final long VERIFY_DELAY = Long.getLong("cp.verifyDelay", 2);
+    static final int VERIFY_CACHE = Integer.getInteger("cp.verifyCache", 1024);
+    static final String COOKIE_FILE = System.getProperty("cp.cookieFile", "cookies.db");
+    static final String COOKIE_SERVERS = System.getProperty("cp.cookieServers");
+    static final int COOKIE_SHARD = Integer.getInteger("cp.cookieShard", 0);
+
+    private CPServerConfig() {}
+
+    // create the phy layer for the selected transport
+    static PhyProtocol openPhy(int port) {
+        return switch (TRANSPORT) {
+            case "nio" -> new NioPhyProtocol(port, false);
+            case "nio-direct" -> new NioPhyProtocol(port, true);
+            default -> new PhyProtocol(port);
+        };
+    }
+
+    // create the cookie table of a cookie server
+    static CookieStore openCookieStore() throws IOException {
+        long lifetime = CPProtocol.getCookieLifetime();
+        if (COOKIE_STORE.equals("mapped")) {
+            MappedCookieStore store = MappedCookieStore.open(Path.of(COOKIE_FILE), COOKIE_CAPACITY, lifetime);
+            // write the table back on shutdown, a killed server is repaired on the next start
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException ignored) {
+                }
+            }));
+            return store;
+        }
+        String kind = COOKIE_STORE;
+        if (WORKERS > 1 && !kind.startsWith("striped")) {
+            // one table lock would serialize every worker
+            System.out.println("cp.cookieStore=" + kind + " is not striped, using striped for " + WORKERS + " workers");
+            kind = kind.endsWith("-direct") ? "striped-direct" : "striped";
+        }
+        return switch (kind) {
+            case "map" -> new MapCookieStore(COOKIE_CAPACITY, lifetime);
+            case "packed" -> new PackedCookieStore(COOKIE_CAPACITY, lifetime);
+            case "packed-direct" -> new PackedCookieStore(COOKIE_CAPACITY, lifetime, true);
+            case "striped" -> new StripedCookieStore(COOKIE_CAPACITY, lifetime, 4 * WORKERS, false);
+            case "striped-direct" -> new StripedCookieStore(COOKIE_CAPACITY, lifetime, 4 * WORKERS, true);
+            default -> new BoundedCookieStore(COOKIE_CAPACITY, lifetime, switch (COOKIE_POLICY) {
+                case "lfu" -> BoundedCookieStore.EvictionPolicy.LFU;
+                case "ttl" -> BoundedCookieStore.EvictionPolicy.TTL_FIRST;
+                default -> BoundedCookieStore.EvictionPolicy.LRU;
+            });
+        };
+    }
+
+    // create the signer for stateless cookies, null if no key is configured
+    static CookieSigner openCookieSigner() {
+        if (COOKIE_KEY == null || COOKIE_KEY.isEmpty())
+            return null;
+        return new CookieSigner(COOKIE_KEY.getBytes(StandardCharsets.UTF_8), CPProtocol.getCookieLifetime());
+    }
+
+    /*
+     * ring of the sharded cookie service, null if cp.cookieServers is not set
+     * IllegalArgumentException for an entry that is not host:port with a port in 1..65535
+     */
+    static ConsistentHashRing openCookieRing() throws UnknownHostException {
+        if (COOKIE_SERVERS == null || COOKIE_SERVERS.isBlank())
+            return null;
+        List<PhyConfiguration> shards = new ArrayList<>();
+        for (String server : COOKIE_SERVERS.split(",")) {
+            String entry = server.trim();
+            int colon = entry.lastIndexOf(':');
+            int port = -1;
+            if (colon > 0) {
+                try {
+                    port = Integer.parseInt(entry.substring(colon + 1));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            if (port < 1 || port > 65535)
+                throw new IllegalArgumentException("Invalid cp.cookieServers entry '" + entry + "', expected host:port");
+            shards.add(new PhyConfiguration(InetAddress.getByName(entry.substring(0, colon)), port, Protocol.proto_id.CP));
+        }
+        return new ConsistentHashRing(shards);
+    }
+
+    /*
+     * port of this cookie server, taken from cp.cookieServers when the service is sharded
+     * IllegalArgumentException if cp.cookieShard is not an index into cp.cookieServers
+     */
+    static int cookieServerPort() throws UnknownHostException {
+        ConsistentHashRing ring = openCookieRing();
+        if (ring == null)
+            return CPCookieServer.COOKIE_SERVER_PORT;
+        if (COOKIE_SHARD < 0 || COOKIE_SHARD >= ring.size())
+            throw new IllegalArgumentException("cp.cookieShard=" + COOKIE_SHARD + " is out of range, cp.cookieServers lists "
+                    + ring.size() + " servers");
+        return ring.get(COOKIE_SHARD).getRemotePort();
+    }
+
+    /*
+     * create one phy endpoint per worker: with SO_REUSEPORT every worker gets its own socket and the
+     * kernel spreads the datagrams, otherwise all workers are fed from one shared channel
+     */
+    static PhyProtocol[] openWorkerPhys(int port) {
+        PhyProtocol[] phys = new PhyProtocol[WORKERS];
+        if (WORKERS == 1) {
+            phys[0] = openPhy(port);
+            return phys;
+        }
+        boolean direct = TRANSPORT.equals("nio-direct");
+        for (int i = 0; i < WORKERS; i++) {
+            if (NioPhyProtocol.REUSE_PORT_SUPPORTED)
+                phys[i] = new NioPhyProtocol(port, direct, true);
+            else
+                phys[i] = (i == 0) ? new NioPhyProtocol(port, direct) : phys[0];
+        }
+        return phys;
+    }
+}
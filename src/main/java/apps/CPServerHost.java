@@ -0,0 +1,61 @@
+package apps;
+
+import cp.CPProtocol;
+import cp.ConsistentHashRing;
+import phy.NioPhyProtocol;
+import phy.PhyReactor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+
+/*
+ * Hosts the cookie server and the command server in one process
+ * Both endpoints are served by a single selector thread instead of one blocking thread per socket
+ */
+public class CPServerHost {
+
+    public static void main(String[] args) {
+        PhyReactor reactor;
+        int cookiePort;
+        try {
+            reactor = new PhyReactor(CPServerConfig.BATCH_SIZE);
+            // sharded -> the hosted cookie server is shard cp.cookieShard of cp.cookieServers
+            ConsistentHashRing shards = CPServerConfig.openCookieRing();
+            cookiePort = CPServerConfig.cookieServerPort();
+
+            // cookie server endpoint
+            NioPhyProtocol cookiePhy = new NioPhyProtocol(cookiePort, true);
+            CPProtocol cookieCp = new CPProtocol(cookiePhy, true);
+            cookieCp.setBinaryFormat(CPServerConfig.BINARY);
+            cookieCp.setCookieStore(CPServerConfig.openCookieStore());
+            cookieCp.setCookieSigner(CPServerConfig.openCookieSigner());
+            if (shards != null)
+                cookieCp.setCookieShard(shards, CPServerConfig.COOKIE_SHARD);
+            reactor.register(cookiePhy, cookieCp::dispatchBatch);
+
+            // command server endpoint
+            NioPhyProtocol commandPhy = new NioPhyProtocol(CPCommandServer.COMMAND_SERVER_PORT, true);
+            CPProtocol commandCp = new CPProtocol(commandPhy, false);
+            commandCp.setBinaryFormat(CPServerConfig.BINARY);
+            commandCp.setCookieSigner(CPServerConfig.openCookieSigner());
+            if (CPServerConfig.VERIFY_BATCH > 0)
+                commandCp.setVerificationBatching(CPServerConfig.VERIFY_BATCH, CPServerConfig.VERIFY_DELAY);
+            commandCp.setVerifiedCookieCache(CPServerConfig.VERIFY_CACHE);
+            if (CPServerConfig.VIRTUAL_THREADS)
+                commandCp.setCommandExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            commandCp.setCookieServer(InetAddress.getByName("localhost"), CPCookieServer.COOKIE_SERVER_PORT);
+            if (shards != null)
+                commandCp.setCookieShards(shards);
+            reactor.register(commandPhy, commandCp::dispatchBatch);
+        } catch (IOException | IllegalArgumentException e) {
+            // unreadable cookie table, unknown shard host, invalid shard configuration
+            System.err.println("Failed to initialize server host: " + e);
+            return;
+        }
+
+        System.out.println("--- Cookie Server on Port " + cookiePort
+                + ", Command Server on Port " + CPCommandServer.COMMAND_SERVER_PORT + " ---");
+        reactor.run();
+    }
+}
@@ -2,6 +2,8 @@ package core;
 
 import exceptions.IWProtocolException;
 
+import java.nio.ByteBuffer;
+
 /* 
  * Msg base class (abstract)
  */
@@ -9,6 +11,8 @@ public abstract class Msg {
 	protected String data;
 	protected byte[] dataBytes;
 	protected Configuration config;
+	// message uses the binary instead of the text format
+	protected boolean binary;
 	
 	public byte[] getDataBytes() {
 		return this.dataBytes;
@@ -26,6 +30,19 @@ public abstract class Msg {
 		this.data = data;
 	}
 	
+	public boolean isBinary() {
+		return this.binary;
+	}
+
+	/*
+	 * Write the encoded message into out (used by the lower layer to build the datagram in place)
+	 * Text messages write the bytes prepared by create(), binary messages override this method
+	 * A message that does not fit throws BufferOverflowException, the lower layer reports it as IOException
+	 */
+	public void encode(ByteBuffer out) {
+		out.put(this.dataBytes);
+	}
+
 	public Configuration getConfiguration() {
 		return this.config;
 	}
@@ -0,0 +1,250 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/*
+ * CookieStore with a fixed capacity that evicts instead of rejecting: when the store is full, expired cookies
+ * are removed first and then the cookie chosen by the eviction policy makes room for the new client.
+ *   LRU      : least recently issued or verified cookie
+ *   LFU      : least frequently used cookie (issue + verifications), ties broken by least recent use
+ *   TTL_FIRST: cookie closest to its expiry, i.e. the oldest one
+ * All bookkeeping is O(1): every cookie is linked into an expiry list (creation order) and, for LRU/LFU, into a
+ * recency list or into the list of its frequency bucket. The buckets form a list ordered by frequency.
+ * An evicted client gets "Invalid or expired cookie" for its next command and requests a new cookie.
+ */
+public class BoundedCookieStore implements CookieStore {
+    public enum EvictionPolicy { LRU, LFU, TTL_FIRST }
+
+    private final int capacity;
+    private final long lifetime;
+    private final EvictionPolicy policy;
+    private final HashMap<PhyConfiguration, Entry> byClient = new HashMap<>();
+    private final HashMap<Integer, Entry> byValue = new HashMap<>();
+    private final Random rnd = new Random();
+    private IntPredicate valueFilter;
+    // expiry list, oldest first
+    private Entry oldest, newest;
+    // LRU: recency list, least recent first
+    private Entry lruHead, lruTail;
+    // LFU: frequency buckets, lowest frequency first
+    private Bucket lowest;
+    private long evictions;
+
+    public BoundedCookieStore(int capacity, long lifetime, EvictionPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.lifetime = lifetime;
+        this.policy = policy;
+    }
+
+    @Override
+    public synchronized int issue(PhyConfiguration client, long now) {
+        expire(now);
+        Entry old = byClient.get(client);
+        // a renewal replaces the client's cookie, so it never needs room
+        if (old == null && byClient.size() >= capacity) {
+            evictions++;
+            remove(victim());
+        }
+
+        int value;
+        do {
+            value = rnd.nextInt(Integer.MAX_VALUE);
+        } while (byValue.containsKey(value) || (valueFilter != null && !valueFilter.test(value)));
+
+        Entry e = new Entry(client, value, now);
+        switch (policy) {
+            case LRU -> linkLru(e);
+            // a renewing client keeps its usage count and takes the place of its previous cookie
+            case LFU -> append(old != null ? old.bucket : firstBucket(), e);
+            case TTL_FIRST -> { }
+        }
+        if (old != null)
+            remove(old);
+        byClient.put(client, e);
+        byValue.put(value, e);
+        linkExpiry(e);
+        return value;
+    }
+
+    @Override
+    public synchronized long remainingLifetime(int cookie, long now) {
+        Entry e = byValue.get(cookie);
+        if (e == null)
+            return 0;
+        long remaining = e.created + lifetime - now;
+        if (remaining <= 0) {
+            remove(e);
+            return 0;
+        }
+        switch (policy) {
+            case LRU -> { unlinkLru(e); linkLru(e); }
+            case LFU -> touch(e);
+            case TTL_FIRST -> { }
+        }
+        return remaining;
+    }
+
+    // the expiry list is in creation order, so only its head has to be checked
+    @Override
+    public synchronized int expire(long now) {
+        int removed = 0;
+        while (oldest != null && now - oldest.created >= lifetime) {
+            remove(oldest);
+            removed++;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized int size() {
+        return byClient.size();
+    }
+
+    @Override
+    public synchronized void setValueFilter(IntPredicate accept) {
+        this.valueFilter = accept;
+    }
+
+    // number of live cookies evicted to make room for new clients
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private Entry victim() {
+        return switch (policy) {
+            case LRU -> lruHead;
+            case LFU -> lowest.head;
+            case TTL_FIRST -> oldest;
+        };
+    }
+
+    private void remove(Entry e) {
+        byClient.remove(e.client);
+        byValue.remove(e.value);
+        unlinkExpiry(e);
+        switch (policy) {
+            case LRU -> unlinkLru(e);
+            case LFU -> unlink(e);
+            case TTL_FIRST -> { }
+        }
+    }
+
+    private void linkExpiry(Entry e) {
+        e.older = newest;
+        e.newer = null;
+        if (newest != null)
+            newest.newer = e;
+        else
+            oldest = e;
+        newest = e;
+    }
+
+    private void unlinkExpiry(Entry e) {
+        if (e.older != null) e.older.newer = e.newer; else oldest = e.newer;
+        if (e.newer != null) e.newer.older = e.older; else newest = e.older;
+        e.older = e.newer = null;
+    }
+
+    private void linkLru(Entry e) {
+        e.prev = lruTail;
+        e.next = null;
+        if (lruTail != null)
+            lruTail.next = e;
+        else
+            lruHead = e;
+        lruTail = e;
+    }
+
+    private void unlinkLru(Entry e) {
+        if (e.prev != null) e.prev.next = e.next; else lruHead = e.next;
+        if (e.next != null) e.next.prev = e.prev; else lruTail = e.prev;
+        e.prev = e.next = null;
+    }
+
+    // LFU: move e into the bucket of the next higher frequency
+    private void touch(Entry e) {
+        Bucket b = e.bucket;
+        Bucket n = b.next;
+        if (n == null || n.uses != b.uses + 1)
+            n = insertAfter(b, new Bucket(b.uses + 1));
+        unlink(e);
+        append(n, e);
+    }
+
+    // bucket for new entries (used once), created at the front if missing
+    private Bucket firstBucket() {
+        if (lowest != null && lowest.uses == 1)
+            return lowest;
+        return insertAfter(null, new Bucket(1));
+    }
+
+    // link bucket n behind b (null -> at the front)
+    private Bucket insertAfter(Bucket b, Bucket n) {
+        n.prev = b;
+        n.next = (b == null) ? lowest : b.next;
+        if (n.next != null)
+            n.next.prev = n;
+        if (b != null)
+            b.next = n;
+        else
+            lowest = n;
+        return n;
+    }
+
+    private void append(Bucket b, Entry e) {
+        e.bucket = b;
+        e.prev = b.tail;
+        e.next = null;
+        if (b.tail != null)
+            b.tail.next = e;
+        else
+            b.head = e;
+        b.tail = e;
+        b.count++;
+    }
+
+    // unlink e from its bucket, an empty bucket is removed from the bucket list
+    private void unlink(Entry e) {
+        Bucket b = e.bucket;
+        if (e.prev != null) e.prev.next = e.next; else b.head = e.next;
+        if (e.next != null) e.next.prev = e.prev; else b.tail = e.prev;
+        e.prev = e.next = null;
+        e.bucket = null;
+        if (--b.count == 0) {
+            if (b.prev != null) b.prev.next = b.next; else lowest = b.next;
+            if (b.next != null) b.next.prev = b.prev;
+        }
+    }
+
+    private static final class Entry {
+        final PhyConfiguration client;
+        final int value;
+        final long created;
+        Bucket bucket;
+        Entry older, newer; // expiry list
+        Entry prev, next;   // recency list or frequency bucket
+
+        Entry(PhyConfiguration client, int value, long created) {
+            this.client = client;
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    private static final class Bucket {
+        final int uses;
+        int count;
+        Entry head, tail;
+        Bucket prev, next;
+
+        Bucket(int uses) {
+            this.uses = uses;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cp;
+
+import exceptions.CookieTimeoutException;
+import exceptions.IWProtocolException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Asynchronous client on top of a client CPProtocol in pipelined mode.
+ * submit() only queues the command and returns a future. One receiver thread owns the protocol instance:
+ * it requests a cookie when needed, sends queued commands while the window has room and completes the
+ * futures as the responses arrive, in any order. Any number of threads may submit commands.
+ * A future completes with the command response, also for error responses of the server, and exceptionally
+ * with CookieRequestException if no cookie could be obtained or CookieTimeoutException if the command stays
+ * unanswered. Each command is retransmitted when its own RTT based timeout expires, it is sent at most three times.
+ * A command rejected because of an invalid or expired cookie is sent once more with a new cookie.
+ * Dependent actions without an executor run on the receiver thread and must not block.
+ * Responses are awaited through PhyProtocol.receiveAsync, so the short polls of the receiver thread do not
+ * change socket options; the phy instance must not be used by anything else.
+ */
+public class CPAsyncClient implements AutoCloseable {
+    // receive timeout of one poll, bounds the delay of newly submitted commands while others are in flight
+    private static final int POLL_TIMEOUT = 20;
+    // transmissions of a command before it fails, as in the blocking client
+    private static final int ATTEMPTS = 3;
+    private static final String INVALID_COOKIE = "Invalid or expired cookie";
+
+    private final CPProtocol cp;
+    private final LinkedBlockingDeque<Submission> queue = new LinkedBlockingDeque<>();
+    // accessed by the receiver thread only
+    private final HashMap<Integer, Submission> inFlight = new HashMap<>();
+    private final Thread receiver;
+    private volatile boolean closed;
+
+    /**
+     * @param cp client protocol instance, configured (cookie server, format) and used by nothing else
+     * @param window maximum number of commands in flight
+     */
+    public CPAsyncClient(CPProtocol cp, int window) {
+        this.cp = cp;
+        cp.setPipelineWindow(window);
+        cp.setAsyncReceive(true);
+        this.receiver = new Thread(this::run, "cp-async-client");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    /**
+     * Queue a command for sending.
+     * @param command raw command, e.g. "status" or "print text"
+     * @return future of the server's response
+     */
+    public CompletableFuture<CPCommandResponseMsg> submit(String command) {
+        Submission s = new Submission(command);
+        if (closed) {
+            s.future.cancel(false);
+            return s.future;
+        }
+        queue.add(s);
+        // closed meanwhile -> the receiver thread may already have cancelled the queued commands
+        if (closed) {
+            queue.remove(s);
+            s.future.cancel(false);
+        }
+        return s.future;
+    }
+
+    /**
+     * Stop the receiver thread, commands not answered yet are cancelled.
+     * An interrupt while waiting for the thread ends the wait, the interrupt status is kept.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        receiver.interrupt();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                if (inFlight.isEmpty()) {
+                    // idle -> wait for the next command
+                    queue.putFirst(queue.takeFirst());
+                    // a cookie is only requested while nothing is in flight, requestCookie() ignores other responses
+                    if (!cp.hasCookie() && !acquireCookie())
+                        continue;
+                }
+                fillWindow();
+                if (inFlight.isEmpty())
+                    continue;
+
+                CPCommandResponseMsg res = cp.pollResponse(Math.min(POLL_TIMEOUT, cp.nextRetransmission()));
+                if (res != null)
+                    complete(inFlight.remove(res.getId()), res);
+                // every command has its own timer, a response to another command does not restart it
+                List<Integer> lost = cp.retransmitExpired(ATTEMPTS);
+                if (!lost.isEmpty()) {
+                    CookieTimeoutException timeout = new CookieTimeoutException("Server timeout");
+                    for (int id : lost)
+                        inFlight.remove(id).future.completeExceptionally(timeout);
+                }
+            }
+        } catch (InterruptedException | InterruptedIOException ignored) {
+            // closed
+        } catch (IOException e) {
+            // the socket failed -> no command can be answered anymore
+            closed = true;
+            failAll(new ArrayList<>(inFlight.values()), e);
+            inFlight.clear();
+            failAll(drainQueue(), e);
+        } finally {
+            // closed -> commands not answered yet are cancelled
+            for (Submission s : inFlight.values())
+                s.future.cancel(false);
+            inFlight.clear();
+            for (Submission s : drainQueue())
+                s.future.cancel(false);
+        }
+    }
+
+    private List<Submission> drainQueue() {
+        List<Submission> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        return queued;
+    }
+
+    // request a cookie, on failure all queued commands fail
+    private boolean acquireCookie() throws IOException {
+        try {
+            cp.requestCookie();
+            return true;
+        } catch (IWProtocolException e) {
+            failAll(drainQueue(), e);
+            return false;
+        }
+    }
+
+    // send queued commands while the window has room and the cookie is valid
+    private void fillWindow() throws IOException {
+        while (cp.hasCookie() && cp.canSend()) {
+            Submission s = queue.pollFirst();
+            if (s == null)
+                return;
+            try {
+                inFlight.put(cp.sendCommand(s.command), s);
+            } catch (IWProtocolException e) {
+                s.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void complete(Submission s, CPCommandResponseMsg res) {
+        if (!res.isSuccess() && INVALID_COOKIE.equals(res.getResponseMessage()) && !s.retried) {
+            // cookie expired or evicted -> new cookie once the commands in flight are answered, then send again
+            s.retried = true;
+            cp.dropCookie();
+            queue.addFirst(s);
+            return;
+        }
+        s.future.complete(res);
+    }
+
+    private static void failAll(List<Submission> submissions, Throwable cause) {
+        for (Submission s : submissions)
+            s.future.completeExceptionally(cause);
+    }
+
+    private static final class Submission {
+        final String command;
+        final CompletableFuture<CPCommandResponseMsg> future = new CompletableFuture<>();
+        boolean retried;
+
+        Submission(String command) {
+            this.command = command;
+        }
+    }
+}
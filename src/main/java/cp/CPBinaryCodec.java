@@ -0,0 +1,106 @@
+package cp;
+
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/*
+ * Field helpers for the compact binary format of CP messages
+ * frame: <type:1> <fields...> <crc32:4>
+ *   ids and lengths are unsigned varints (7 bit groups, least significant first)
+ *   cookies are fixed 8 byte integers (big endian)
+ *   signed cookies (see CookieSigner) use all 64 bits
+ *   strings are <length:varint> <utf-8 bytes>
+ *   the CRC32 covers every byte before it
+ */
+final class CPBinaryCodec {
+    // a binary CP frame has to fit into one phy datagram together with the 1 byte phy header
+    static final int MAX_FRAME_SIZE = 1023;
+    private static final int CRC_SIZE = 4;
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
+    private CPBinaryCodec() {}
+
+    static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IllegalMsgException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalMsgException("Malformed varint");
+    }
+
+    static void writeString(ByteBuffer out, String s) {
+        int length = s.length();
+        int i = 0;
+        while (i < length && s.charAt(i) < 0x80) i++;
+        if (i == length) {
+            // ASCII -> one byte per char, written without an intermediate byte[]
+            writeVarInt(out, length);
+            for (i = 0; i < length; i++)
+                out.put((byte) s.charAt(i));
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.put(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IllegalMsgException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining())
+            throw new IllegalMsgException("Invalid string length");
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Encode a message at the position of out: type byte, message fields, CRC32 over both
+     * IllegalStateException if the message class has no binary representation
+     */
+    static void encode(CPMsg msg, ByteBuffer out) {
+        byte type = msg.getBinaryType();
+        if (type == CPMsg.BIN_NONE)
+            throw new IllegalStateException("No binary format for " + msg.getClass().getSimpleName());
+        int start = out.position();
+        out.put(type);
+        msg.writeBinary(out);
+        int end = out.position();
+        // checksum the frame in place, the CRC32 object of the thread is reused
+        CRC32 crc = CRC.get();
+        crc.reset();
+        int limit = out.limit();
+        out.position(start).limit(end);
+        crc.update(out);
+        out.limit(limit);
+        out.putInt((int) crc.getValue());
+    }
+
+    /*
+     * Check the CRC of a received frame and return a view on type + fields
+     */
+    static ByteBuffer verify(ByteBuffer frame) throws IllegalMsgException {
+        if (frame.remaining() < 1 + CRC_SIZE)
+            throw new IllegalMsgException("Binary frame too short");
+        ByteBuffer body = frame.slice(frame.position(), frame.remaining() - CRC_SIZE);
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(body.duplicate());
+        if (frame.getInt(frame.limit() - CRC_SIZE) != (int) crc.getValue())
+            throw new IllegalMsgException("Checksum mismatch: Message corrupted");
+        return body;
+    }
+}
@@ -2,6 +2,7 @@ package cp;
 
 import core.Msg;
 import exceptions.IllegalMsgException;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 
 // Class that stores the contents of the commands sent by the user
@@ -11,7 +12,7 @@ public class CPCommandMsg extends CPMsg{
 
     // message fields
     private int id;
-    private int cookie;
+    private long cookie;
     private int length;
     private String command;
     private String message;
@@ -33,7 +34,7 @@ public class CPCommandMsg extends CPMsg{
      * @param id exclusive id of the command
      * @param cookie cookie obtained by the server
      */
-    public void create(String s, int id, int cookie) {
+    public void create(String s, int id, long cookie) {
         this.id = id;
         this.cookie = cookie;
         this.message = ""; // by default the command message is empty
@@ -107,7 +108,7 @@ public class CPCommandMsg extends CPMsg{
         if (parts.length < 5) throw new IllegalMsgException("Invalid command format");
 
         this.id = Integer.parseInt(parts[1]);
-        this.cookie = Integer.parseInt(parts[2]);
+        this.cookie = Long.parseLong(parts[2]);
         this.length = Integer.parseInt(parts[3]);
         this.command = parts[4];
         this.message = (parts.length == 6) ? parts[5] : "";
@@ -115,10 +116,33 @@ public class CPCommandMsg extends CPMsg{
         return this;
     }
 
+    /*
+     * binary fields: <id:varint> <cookie:8> <command:string> <message:string>
+     */
+    @Override
+    protected byte getBinaryType() {return BIN_COMMAND;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        CPBinaryCodec.writeVarInt(out, this.id);
+        out.putLong(this.cookie);
+        CPBinaryCodec.writeString(out, this.command);
+        CPBinaryCodec.writeString(out, this.message);
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.id = CPBinaryCodec.readVarInt(in);
+        this.cookie = in.getLong();
+        this.command = CPBinaryCodec.readString(in);
+        this.message = CPBinaryCodec.readString(in);
+        this.length = this.command.length() + this.message.length();
+    }
+
     public int getId() {
         return this.id;
     }
-    public int getCookie() { return this.cookie; }
+    public long getCookie() { return this.cookie; }
     public String getCommand() { return this.command; }
     public String getMessage() { return this.message; }
 
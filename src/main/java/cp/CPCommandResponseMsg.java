@@ -2,6 +2,7 @@ package cp;
 
 import core.Msg;
 import exceptions.IllegalMsgException;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -60,7 +61,8 @@ public class CPCommandResponseMsg extends CPMsg {
         // add checksum to response message
         String finalMsg = dataPart + " " + checksum;
 
-        this.create(finalMsg);
+        // super class prepends the cp header
+        super.create(finalMsg);
     }
 
     /**
@@ -121,6 +123,27 @@ public class CPCommandResponseMsg extends CPMsg {
         return this;
     }
 
+    /*
+     * binary fields: <id:varint> <ok:1> <message:string>
+     */
+    @Override
+    protected byte getBinaryType() {return BIN_COMMAND_RESPONSE;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        CPBinaryCodec.writeVarInt(out, this.id);
+        out.put((byte) (this.success ? 1 : 0));
+        CPBinaryCodec.writeString(out, this.responseMessage);
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.id = CPBinaryCodec.readVarInt(in);
+        this.success = in.get() == 1;
+        this.responseMessage = CPBinaryCodec.readString(in);
+        this.length = this.responseMessage.length();
+    }
+
     public int getId() {
         return this.id;
     }
@@ -0,0 +1,83 @@
+package cp;
+
+import core.Msg;
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+
+ // format: cp cookie_batch_verification_request <n> <id> <cookie> ... (n pairs)
+public class CPCookieBatchVerificationRequestMsg extends CPMsg {
+    // pairs per message, the text format of a full batch still fits into one datagram
+    public static final int MAX_PAIRS = 24;
+    protected static final String BATCH_VERIFY_REQ_HEADER = "cookie_batch_verification_request";
+    private int[] ids;
+    private long[] cookies;
+    private int count;
+
+    /*
+     * ids: correlation ids chosen by the command server, returned with the result of each cookie
+     */
+    public void create(int[] ids, long[] cookies, int count) {
+        if (count > MAX_PAIRS)
+            throw new IllegalArgumentException("At most " + MAX_PAIRS + " cookies per batch");
+        this.ids = ids;
+        this.cookies = cookies;
+        this.count = count;
+        StringBuilder sb = new StringBuilder(BATCH_VERIFY_REQ_HEADER).append(' ').append(count);
+        for (int i = 0; i < count; i++)
+            sb.append(' ').append(ids[i]).append(' ').append(cookies[i]);
+        super.create(sb.toString());
+    }
+
+    @Override
+    protected Msg parse(String sentence) throws IllegalMsgException {
+        if (!sentence.startsWith(BATCH_VERIFY_REQ_HEADER)) {
+            throw new IllegalMsgException("Not a batch verification request");
+        }
+        String[] parts = sentence.split("\\s+");
+        try {
+            this.count = Integer.parseInt(parts[1]);
+            if (this.count < 0 || this.count > MAX_PAIRS || parts.length != 2 + 2 * this.count)
+                throw new IllegalMsgException("Invalid batch size");
+            this.ids = new int[this.count];
+            this.cookies = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                this.ids[i] = Integer.parseInt(parts[2 + 2 * i]);
+                this.cookies[i] = Long.parseLong(parts[3 + 2 * i]);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalMsgException("Invalid batch verification request");
+        }
+        return this;
+    }
+
+    // binary fields: <n:varint> (<id:varint> <cookie:8>) * n
+    @Override
+    protected byte getBinaryType() {return BIN_BATCH_VERIFY_REQUEST;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        CPBinaryCodec.writeVarInt(out, this.count);
+        for (int i = 0; i < this.count; i++) {
+            CPBinaryCodec.writeVarInt(out, this.ids[i]);
+            out.putLong(this.cookies[i]);
+        }
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.count = CPBinaryCodec.readVarInt(in);
+        if (this.count < 0 || this.count > MAX_PAIRS)
+            throw new IllegalMsgException("Invalid batch size");
+        this.ids = new int[this.count];
+        this.cookies = new long[this.count];
+        for (int i = 0; i < this.count; i++) {
+            this.ids[i] = CPBinaryCodec.readVarInt(in);
+            this.cookies[i] = in.getLong();
+        }
+    }
+
+    public int getCount() { return count; }
+    public int getId(int i) { return ids[i]; }
+    public long getCookie(int i) { return cookies[i]; }
+}
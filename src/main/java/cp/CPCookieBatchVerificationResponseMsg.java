@@ -0,0 +1,89 @@
+package cp;
+
+import core.Msg;
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+
+ // format: cp cookie_batch_verification_response <n> <id> <ok|error> <remaining lifetime ms> ... (n triples)
+ // the remaining lifetime is 0 for failed verifications
+public class CPCookieBatchVerificationResponseMsg extends CPMsg {
+    protected static final String BATCH_VERIFY_RES_HEADER = "cookie_batch_verification_response";
+    private int[] ids;
+    private boolean[] results;
+    private long[] remaining;
+    private int count;
+
+    public void create(int[] ids, boolean[] results, long[] remaining, int count) {
+        this.ids = ids;
+        this.results = results;
+        this.remaining = remaining;
+        this.count = count;
+        StringBuilder sb = new StringBuilder(BATCH_VERIFY_RES_HEADER).append(' ').append(count);
+        for (int i = 0; i < count; i++)
+            sb.append(' ').append(ids[i]).append(' ').append(results[i] ? "ok" : "error")
+                    .append(' ').append(results[i] ? remaining[i] : 0);
+        super.create(sb.toString());
+    }
+
+    @Override
+    protected Msg parse(String sentence) throws IllegalMsgException {
+        if (!sentence.startsWith(BATCH_VERIFY_RES_HEADER)) {
+            throw new IllegalMsgException("Not a batch verification response");
+        }
+        String[] parts = sentence.split("\\s+");
+        try {
+            this.count = Integer.parseInt(parts[1]);
+            if (this.count < 0 || this.count > CPCookieBatchVerificationRequestMsg.MAX_PAIRS
+                    || parts.length != 2 + 3 * this.count)
+                throw new IllegalMsgException("Invalid batch size");
+            this.ids = new int[this.count];
+            this.results = new boolean[this.count];
+            this.remaining = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                this.ids[i] = Integer.parseInt(parts[2 + 3 * i]);
+                this.results[i] = parts[3 + 3 * i].equals("ok");
+                this.remaining[i] = this.results[i] ? Math.max(0, Long.parseLong(parts[4 + 3 * i])) : 0;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalMsgException("Invalid batch verification response");
+        }
+        return this;
+    }
+
+    // binary fields: <n:varint> (<id:varint> <ok:1> <remaining lifetime:varint>) * n
+    @Override
+    protected byte getBinaryType() {return BIN_BATCH_VERIFY_RESPONSE;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        CPBinaryCodec.writeVarInt(out, this.count);
+        for (int i = 0; i < this.count; i++) {
+            CPBinaryCodec.writeVarInt(out, this.ids[i]);
+            out.put((byte) (this.results[i] ? 1 : 0));
+            CPBinaryCodec.writeVarInt(out, this.results[i] ? (int) Math.min(Integer.MAX_VALUE, this.remaining[i]) : 0);
+        }
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.count = CPBinaryCodec.readVarInt(in);
+        if (this.count < 0 || this.count > CPCookieBatchVerificationRequestMsg.MAX_PAIRS)
+            throw new IllegalMsgException("Invalid batch size");
+        this.ids = new int[this.count];
+        this.results = new boolean[this.count];
+        this.remaining = new long[this.count];
+        for (int i = 0; i < this.count; i++) {
+            this.ids[i] = CPBinaryCodec.readVarInt(in);
+            this.results[i] = in.get() == 1;
+            // the lifetime field is always present, 0 for failed verifications
+            int remaining = CPBinaryCodec.readVarInt(in);
+            this.remaining[i] = this.results[i] ? Math.max(0, remaining) : 0;
+        }
+    }
+
+    public int getCount() { return count; }
+    public int getId(int i) { return ids[i]; }
+    public boolean isSuccess(int i) { return results[i]; }
+    public long getRemainingLifetime(int i) { return remaining[i]; }
+}
@@ -25,4 +25,7 @@ class CPCookieRequestMsg extends CPMsg {
         }
         return this;
     }
-}
\ No newline at end of file
+
+    @Override
+    protected byte getBinaryType() {return BIN_COOKIE_REQUEST;}
+}
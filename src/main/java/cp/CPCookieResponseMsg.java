@@ -3,17 +3,20 @@ package cp;
 import core.Msg;
 import exceptions.IllegalMsgException;
 
+import java.nio.ByteBuffer;
+
 class CPCookieResponseMsg extends CPMsg {
     protected static final String CP_CRES_HEADER = "cookie_response";
     private boolean success;
-    private int cookie;
+    private long cookie;
+    private String reason;
 
     protected CPCookieResponseMsg() { }
     protected CPCookieResponseMsg(boolean s) {
         this.success = s;
     }
     protected boolean getSuccess() {return this.success;}
-    protected int getCookie() {return this.cookie;}
+    protected long getCookie() {return this.cookie;}
 
     /*
      * Create cookie request message.
@@ -23,8 +26,10 @@ class CPCookieResponseMsg extends CPMsg {
     protected void create(String data) {
         if (this.success) {
             // prepend cres header
+            this.cookie = Long.parseLong(data);
             data = CP_CRES_HEADER + " ACK " + data;
         } else {
+            this.reason = data;
             data = CP_CRES_HEADER + " NAK " + data;
         }
         // super class prepends slp header
@@ -43,15 +48,38 @@ class CPCookieResponseMsg extends CPMsg {
 
         if (success) {
             try {
-                Integer.parseInt(parts[2]);
+                this.cookie = Long.parseLong(parts[2]);
             } catch (NumberFormatException e) {
                 throw new IllegalMsgException();
             }
-            this.cookie = Integer.parseInt(parts[2]);
         } else {
-            this.data = parts[2];
+            this.data = this.reason = parts[2];
         }
         return this;
     }
 
+    /*
+     * binary fields: <ack:1> then <cookie:8> (ACK) or <reason:string> (NAK)
+     */
+    @Override
+    protected byte getBinaryType() {return BIN_COOKIE_RESPONSE;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        out.put((byte) (this.success ? 1 : 0));
+        if (this.success)
+            out.putLong(this.cookie);
+        else
+            CPBinaryCodec.writeString(out, this.reason == null ? "" : this.reason);
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.success = in.get() == 1;
+        if (this.success)
+            this.cookie = in.getLong();
+        else
+            this.data = this.reason = CPBinaryCodec.readString(in);
+    }
+
 }
@@ -3,18 +3,30 @@ package cp;
 import core.Msg;
 import exceptions.IllegalMsgException;
 
- // format: cp cookie_verification_request <cookie>
+import java.nio.ByteBuffer;
+
+ // format: cp cookie_verification_request <cookie> [<correlation id>]
+ // a correlation id is echoed in the response, so requests can be answered in any order
 public class CPCookieVerificationRequestMsg extends CPMsg {
-    private int cookieValue;
+    private long cookieValue;
+    private int correlationId = -1;
     protected static final String VERIFY_REQ_HEADER = "cookie_verification_request";
 
-    public void create(int cookie) {
+    public void create(long cookie) {
         this.cookieValue = cookie;
         //  "cp" prefix is added by a higher layer (CPMsg class)
         String finalMsg = VERIFY_REQ_HEADER + " " + cookie;
         super.create(finalMsg);
     }
 
+    public void create(long cookie, int correlationId) {
+        if (correlationId < 0)
+            throw new IllegalArgumentException("correlation id must not be negative");
+        this.cookieValue = cookie;
+        this.correlationId = correlationId;
+        super.create(VERIFY_REQ_HEADER + " " + cookie + " " + correlationId);
+    }
+
     @Override
     protected Msg parse(String sentence) throws IllegalMsgException {
         if (!sentence.startsWith(VERIFY_REQ_HEADER)) {
@@ -23,9 +35,40 @@ public class CPCookieVerificationRequestMsg extends CPMsg {
         String[] parts = sentence.split("\\s+");
         if (parts.length < 2) throw new IllegalMsgException("Missing cookie value");
 
-        this.cookieValue = Integer.parseInt(parts[1]);
+        try {
+            this.cookieValue = Long.parseLong(parts[1]);
+            if (parts.length > 2)
+                this.correlationId = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalMsgException("Invalid verification request");
+        }
+        if (parts.length > 2 && this.correlationId < 0)
+            throw new IllegalMsgException("Invalid correlation id");
         return this;
     }
 
-    public int getCookieValue() { return cookieValue; }
+    // binary fields: <cookie:8> [<correlation id:varint>]
+    @Override
+    protected byte getBinaryType() {return BIN_VERIFY_REQUEST;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        out.putLong(this.cookieValue);
+        if (this.correlationId >= 0)
+            CPBinaryCodec.writeVarInt(out, this.correlationId);
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.cookieValue = in.getLong();
+        if (in.hasRemaining()) {
+            this.correlationId = CPBinaryCodec.readVarInt(in);
+            if (this.correlationId < 0)
+                throw new IllegalMsgException("Invalid correlation id");
+        }
+    }
+
+    public long getCookieValue() { return cookieValue; }
+    // -1 if the request carries no correlation id
+    public int getCorrelationId() { return correlationId; }
 }
\ No newline at end of file
@@ -3,9 +3,15 @@ package cp;
 import core.Msg;
 import exceptions.IllegalMsgException;
 
- // format: cp cookie_verification_response <ok|error>
+import java.nio.ByteBuffer;
+
+ // format: cp cookie_verification_response <ok|error> [<remaining lifetime ms> [<correlation id>]]
+ // the remaining lifetime is optional, a command server only caches results that carry it (0 -> not reported)
+ // the correlation id of the request is echoed, the lifetime field is then always present
 public class CPCookieVerificationResponseMsg extends CPMsg {
     private boolean success;
+    private long remainingLifetime;
+    private int correlationId = -1;
     protected static final String VERIFY_RES_HEADER = "cookie_verification_response";
 
     public void create(boolean success) {
@@ -14,6 +20,23 @@ public class CPCookieVerificationResponseMsg extends CPMsg {
         super.create(VERIFY_RES_HEADER + " " + status);
     }
 
+    public void create(boolean success, long remainingLifetime) {
+        create(success, remainingLifetime, -1);
+    }
+
+    public void create(boolean success, long remainingLifetime, int correlationId) {
+        long remaining = success ? Math.max(0, remainingLifetime) : 0;
+        if (remaining == 0 && correlationId < 0) {
+            create(success);
+            return;
+        }
+        this.success = success;
+        this.remainingLifetime = remaining;
+        this.correlationId = correlationId;
+        String msg = VERIFY_RES_HEADER + " " + (success ? "ok" : "error") + " " + remaining;
+        super.create(correlationId < 0 ? msg : msg + " " + correlationId);
+    }
+
     @Override
     protected Msg parse(String sentence) throws IllegalMsgException {
         if (!sentence.startsWith(VERIFY_RES_HEADER)) {
@@ -21,8 +44,49 @@ public class CPCookieVerificationResponseMsg extends CPMsg {
         }
         String[] parts = sentence.split("\\s+");
         this.success = parts[1].equals("ok");
+        try {
+            if (parts.length > 2 && this.success)
+                this.remainingLifetime = Math.max(0, Long.parseLong(parts[2]));
+            if (parts.length > 3)
+                this.correlationId = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalMsgException("Invalid verification response");
+        }
+        if (parts.length > 3 && this.correlationId < 0)
+            throw new IllegalMsgException("Invalid correlation id");
         return this;
     }
 
+    // binary fields: <ok:1> [<remaining lifetime:varint> [<correlation id:varint>]]
+    @Override
+    protected byte getBinaryType() {return BIN_VERIFY_RESPONSE;}
+
+    @Override
+    protected void writeBinary(ByteBuffer out) {
+        out.put((byte) (this.success ? 1 : 0));
+        if (this.remainingLifetime > 0 || this.correlationId >= 0)
+            CPBinaryCodec.writeVarInt(out, (int) Math.min(Integer.MAX_VALUE, this.remainingLifetime));
+        if (this.correlationId >= 0)
+            CPBinaryCodec.writeVarInt(out, this.correlationId);
+    }
+
+    @Override
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {
+        this.success = in.get() == 1;
+        if (in.hasRemaining()) {
+            int remaining = CPBinaryCodec.readVarInt(in);
+            this.remainingLifetime = this.success ? Math.max(0, remaining) : 0;
+        }
+        if (in.hasRemaining()) {
+            this.correlationId = CPBinaryCodec.readVarInt(in);
+            if (this.correlationId < 0)
+                throw new IllegalMsgException("Invalid correlation id");
+        }
+    }
+
     public boolean isSuccess() { return success; }
-}
\ No newline at end of file
+    // 0 if the cookie server did not report it
+    public long getRemainingLifetime() { return remainingLifetime; }
+    // -1 if the response carries no correlation id
+    public int getCorrelationId() { return correlationId; }
+}
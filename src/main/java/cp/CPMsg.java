@@ -4,11 +4,26 @@ import core.Msg;
 import exceptions.IWProtocolException;
 import exceptions.IllegalMsgException;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 class CPMsg extends Msg {
     protected static final String CP_HEADER = "cp";
+    // message type byte of the binary format (see CPBinaryCodec), BIN_NONE -> no binary representation
+    protected static final byte BIN_NONE = 0;
+    protected static final byte BIN_COOKIE_REQUEST = 1;
+    protected static final byte BIN_COOKIE_RESPONSE = 2;
+    protected static final byte BIN_COMMAND = 3;
+    protected static final byte BIN_COMMAND_RESPONSE = 4;
+    protected static final byte BIN_VERIFY_REQUEST = 5;
+    protected static final byte BIN_VERIFY_RESPONSE = 6;
+    protected static final byte BIN_BATCH_VERIFY_REQUEST = 7;
+    protected static final byte BIN_BATCH_VERIFY_RESPONSE = 8;
+    // select the format used by encode(): binary or the text prepared by create()
+    void setBinary(boolean binary) {this.binary = binary;}
+
     @Override
     protected void create(String sentence) {
         data = CP_HEADER + " " + sentence;
@@ -39,6 +54,10 @@ class CPMsg extends Msg {
             parsedMsg = new CPCookieVerificationResponseMsg();
         } else if (body.startsWith(CPCookieVerificationRequestMsg.VERIFY_REQ_HEADER)) {
             parsedMsg = new CPCookieVerificationRequestMsg();
+        } else if (body.startsWith(CPCookieBatchVerificationResponseMsg.BATCH_VERIFY_RES_HEADER)) {
+            parsedMsg = new CPCookieBatchVerificationResponseMsg();
+        } else if (body.startsWith(CPCookieBatchVerificationRequestMsg.BATCH_VERIFY_REQ_HEADER)) {
+            parsedMsg = new CPCookieBatchVerificationRequestMsg();
         } else {
             throw new IllegalMsgException("Unknown message header: " + body);
         }
@@ -47,4 +66,57 @@ class CPMsg extends Msg {
         return (CPMsg) parsedMsg.parse(body);
     }
 
+    /*
+     * Binary counterpart of parse(): check the CRC, select the class by the type byte
+     * and let it read its fields
+     */
+    protected CPMsg parseBinary(ByteBuffer frame) throws IllegalMsgException {
+        ByteBuffer body = CPBinaryCodec.verify(frame);
+        CPMsg parsedMsg = switch (body.get()) {
+            case BIN_COOKIE_REQUEST -> new CPCookieRequestMsg();
+            case BIN_COOKIE_RESPONSE -> new CPCookieResponseMsg();
+            case BIN_COMMAND -> new CPCommandMsg();
+            case BIN_COMMAND_RESPONSE -> new CPCommandResponseMsg();
+            case BIN_VERIFY_REQUEST -> new CPCookieVerificationRequestMsg();
+            case BIN_VERIFY_RESPONSE -> new CPCookieVerificationResponseMsg();
+            case BIN_BATCH_VERIFY_REQUEST -> new CPCookieBatchVerificationRequestMsg();
+            case BIN_BATCH_VERIFY_RESPONSE -> new CPCookieBatchVerificationResponseMsg();
+            default -> throw new IllegalMsgException("Unknown binary message type");
+        };
+        try {
+            parsedMsg.readBinary(body);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalMsgException("Truncated binary message");
+        }
+        if (body.hasRemaining())
+            throw new IllegalMsgException("Trailing bytes in binary message");
+        parsedMsg.binary = true;
+        return parsedMsg;
+    }
+
+    // binary frame of this message (type, fields, checksum)
+    protected byte[] toBinary() {
+        ByteBuffer out = ByteBuffer.allocate(CPBinaryCodec.MAX_FRAME_SIZE);
+        CPBinaryCodec.encode(this, out);
+        byte[] frame = new byte[out.position()];
+        out.flip().get(frame);
+        return frame;
+    }
+
+    /*
+     * Encode in place into the buffer prepared by the phy layer
+     */
+    @Override
+    public void encode(ByteBuffer out) {
+        if (this.binary)
+            CPBinaryCodec.encode(this, out);
+        else
+            super.encode(out);
+    }
+
+    // overridden by every message class that has a binary representation
+    protected byte getBinaryType() {return BIN_NONE;}
+    protected void writeBinary(ByteBuffer out) {}
+    protected void readBinary(ByteBuffer in) throws IllegalMsgException {}
+
 }
@@ -5,26 +5,89 @@ import exceptions.*;
 import phy.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class CPProtocol extends Protocol {
+    // initial retransmission timeout, until a round trip time was measured
     private static final int CP_TIMEOUT = 2000;
+    // bounds of the retransmission timeout derived from measured round trip times (commands: CP_MIN_COMMAND_RTO)
+    private static final long CP_MIN_RTO = 100;
+    private static final long CP_MAX_RTO = 4 * CP_TIMEOUT;
+    // command ids are 16 bit, they restart at 0 after CP_MAX_ID
+    private static final int CP_MAX_ID = 65535;
+    // transmissions of a pipelined command before the client gives up on it
+    private static final int CP_ATTEMPTS = 3;
+    // time in ms a response is kept, longer than a client sends copies of a command
+    private static final long CP_RESPONSE_RETENTION = CP_ATTEMPTS * CP_MAX_RTO;
+    // commands per second up to which a command server recognizes every late copy of a command
+    private static final int CP_RECENT_RATE = 1000;
+    // number of responses a command server keeps for retransmitted copies, CP_RECENT_RATE over the retention time
+    private static final int CP_RECENT_RESPONSES = (int) (CP_RECENT_RATE * CP_RESPONSE_RETENTION / 1000);
+    // default capacity of the cookie store (see setCookieStore)
     private static final int CP_HASHMAP_SIZE = 20;
-    private int cookie;
+    // defined time-to-live of a cookie: 60s
+    private static final long COOKIE_LIFETIME = 60000;
+    // time in ms a command waits for its cookie verification before the command server rejects it
+    private static final long CP_VERIFY_TIMEOUT = CP_TIMEOUT / 4;
+    // lower bound of the command retransmission timeout, the rejection after CP_VERIFY_TIMEOUT reaches the
+    // client before its first retransmission of the command
+    private static final long CP_MIN_COMMAND_RTO = 2 * CP_VERIFY_TIMEOUT;
+    // maximum number of commands waiting for verification
+    private static final int CP_MAX_PENDING = 4096;
+    // default number of verified cookies a command server remembers (see setVerifiedCookieCache)
+    private static final int CP_VERIFIED_CACHE_SIZE = 1024;
+    // lock stripes of the state shared by the worker threads of a command server (power of two)
+    private static final int CP_STRIPES = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    private long cookie;
     private int id;
     private PhyConfiguration PhyConfigCommandServer;
     private PhyConfiguration PhyConfigCookieServer;
     private final PhyProtocol PhyProto;
     private final cp_role role;
-    HashMap<PhyConfiguration, Cookie> cookieMap;
-    ArrayList<CPCommandMsg> pendingCommands;
-    Random rnd;
+    CookieStore cookieStore;
+    // set -> stateless signed cookies instead of the cookie store and the verification round trip
+    private CookieSigner cookieSigner;
+    // commands waiting for verification by correlation id, results may arrive in any order
+    PendingCommands pendingCommands;
+    private VerificationBatcher verificationBatcher;
+    // command server: positive verifications by client and cookie, null if disabled
+    private VerifiedCookieCache verifiedCookies;
+    // command server: responses of executed commands, so a retransmitted copy is not executed again
+    private RecentResponses recentResponses;
+    // sharded cookie service, null if there is only PhyConfigCookieServer
+    private ConsistentHashRing cookieShards;
+    // client: ring key selecting the cookie server asked for cookies
+    private long cookieShardKey;
     private CPCommandMsg lastSentCommand;
+    // client: send time (System.nanoTime) of lastSentCommand, -1 once it was retransmitted (Karn's rule)
+    private long lastSentAt = -1;
+    // client: retransmission timeout per remote endpoint (command server, cookie servers)
+    private final HashMap<PhyConfiguration, RttEstimator> rttEstimators = new HashMap<>();
+    // client, pipelined mode: commands in flight indexed by id, null in the default one-at-a-time mode
+    private CPCommandMsg[] inFlight;
+    // time (System.nanoTime) of the last transmission and number of transmissions of each command in flight
+    private long[] inFlightSentAt;
+    private byte[] inFlightAttempts;
+    // commands in flight in the order of their last transmission, so the first one times out first
+    // entries of answered or retransmitted commands no longer match inFlightSentAt and are skipped
+    private final ArrayDeque<Transmission> transmissions = new ArrayDeque<>();
+    private int inFlightCount;
+    private int window = 1;
+    private boolean asyncReceive;
+    private boolean binaryFormat;
+    private Executor commandExecutor;
 
     private enum cp_role {
         CLIENT, COOKIE, COMMAND
@@ -43,18 +106,198 @@ public class CPProtocol extends Protocol {
         this.PhyProto = phyP;
         if (isCookieServer) {
             this.role = cp_role.COOKIE;
-            this.cookieMap = new HashMap<>();
-            this.rnd = new Random();
+            this.cookieStore = new BoundedCookieStore(CP_HASHMAP_SIZE, COOKIE_LIFETIME,
+                    BoundedCookieStore.EvictionPolicy.LRU);
         } else {
             this.role = cp_role.COMMAND;
-            this.pendingCommands = new ArrayList<>();
+            this.pendingCommands = new PendingCommands(CP_MAX_PENDING, CP_VERIFY_TIMEOUT, CP_STRIPES, this::verificationTimedOut);
+            this.verifiedCookies = new VerifiedCookieCache(CP_VERIFIED_CACHE_SIZE, CP_STRIPES);
+            this.recentResponses = new RecentResponses(CP_RECENT_RESPONSES, CP_RESPONSE_RETENTION, CP_STRIPES);
         }
     }
 
+    /**
+     * Constructor for additional server workers: the new instance receives on its own phy endpoint
+     * but shares role, cookie table and pending commands with the given server instance,
+     * so several threads can serve the same port. The shared command server state is striped, a worker
+     * mostly takes the locks of its own stripe; cookie servers with workers need a striped cookie store.
+     */
+    public CPProtocol(PhyProtocol phyP, CPProtocol shared) {
+        this.PhyProto = phyP;
+        this.role = shared.role;
+        this.cookieStore = shared.cookieStore;
+        this.cookieSigner = shared.cookieSigner;
+        this.pendingCommands = shared.pendingCommands;
+        this.verificationBatcher = shared.verificationBatcher;
+        this.verifiedCookies = shared.verifiedCookies;
+        this.recentResponses = shared.recentResponses;
+        this.PhyConfigCookieServer = shared.PhyConfigCookieServer;
+        this.cookieShards = shared.cookieShards;
+        this.binaryFormat = shared.binaryFormat;
+        this.commandExecutor = shared.commandExecutor;
+    }
+
+    /**
+     * Cookie server: keep the issued cookies in the given store instead of the default
+     * store for CP_HASHMAP_SIZE clients, which evicts the least recently used cookie when full
+     * (e.g. a PackedCookieStore for many clients).
+     * Must be called before workers are created from this instance.
+     * @param store cookie table of this server
+     */
+    public void setCookieStore(CookieStore store) {
+        this.cookieStore = store;
+    }
+
+    /**
+     * Switch to stateless cookies: the cookie server issues signed cookies without storing them and the
+     * command server verifies them itself, no verification request is sent to the cookie server.
+     * Both servers need a signer with the same key.
+     * @param signer signer with the key shared by cookie and command server, null for stored cookies (default)
+     */
+    public void setCookieSigner(CookieSigner signer) {
+        this.cookieSigner = signer;
+    }
+
+    /**
+     * @return the cookie lifetime in ms used by cookie servers
+     */
+    public static long getCookieLifetime() {
+        return COOKIE_LIFETIME;
+    }
+
     public void setCookieServer(InetAddress rname, int rp) throws UnknownHostException {
         this.PhyConfigCookieServer = new PhyConfiguration(rname, rp, proto_id.CP);
     }
 
+    /**
+     * Client and command server: use a sharded cookie service instead of a single cookie server.
+     * Every cookie value belongs to one shard of the ring, so verification requests go to the shard
+     * that issued the cookie. A client requests its cookies from the shard selected by a random key
+     * chosen here and moves on to the next shard when a request times out.
+     * @param shards cookie servers, the same list (in the same order) as configured on the cookie servers
+     */
+    public void setCookieShards(ConsistentHashRing shards) {
+        this.cookieShards = shards;
+        this.cookieShardKey = ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Cookie server: serve as one shard of a sharded cookie service, only cookie values owned by this
+     * shard are issued. Call after setCookieStore().
+     * @param shards cookie servers, the same list (in the same order) as configured on clients and command servers
+     * @param self index of this cookie server in the list
+     */
+    public void setCookieShard(ConsistentHashRing shards, int self) {
+        this.cookieShards = shards;
+        this.cookieStore.setValueFilter(value -> shards.shardOf(value) == self);
+    }
+
+    /**
+     * Select the wire format for requests sent by this endpoint.
+     * Received messages are accepted in both formats and servers always answer
+     * in the format of the request, so text clients keep working.
+     * @param binary true for the compact binary format, false for the text format (default)
+     */
+    public void setBinaryFormat(boolean binary) {
+        this.binaryFormat = binary;
+    }
+
+    /**
+     * Command server: verify cookies in batches instead of one request per command. Cookies are collected
+     * per cookie server and sent as one batch verification request when maxSize cookies are queued or
+     * maxDelay ms after the first one; the cookie server answers each batch with one response.
+     * @param maxSize cookies per batch, at most CPCookieBatchVerificationRequestMsg.MAX_PAIRS
+     * @param maxDelay maximum time in ms a cookie waits for its batch to be sent
+     */
+    public void setVerificationBatching(int maxSize, long maxDelay) {
+        this.verificationBatcher = new VerificationBatcher(maxSize, maxDelay,
+                (to, batch) -> sendCP(batch, to, this.binaryFormat));
+    }
+
+    /**
+     * Command server: remember up to capacity positively verified cookies, so a repeated command with the
+     * same cookie from the same client is accepted without asking the cookie server. An entry expires with
+     * the remaining cookie lifetime reported by the cookie server; a cookie the cookie server drops earlier
+     * (renewal, eviction) is still accepted until then.
+     * Must be called before workers are created from this instance.
+     * @param capacity maximum number of cached cookies, 0 disables the cache (default CP_VERIFIED_CACHE_SIZE)
+     */
+    public void setVerifiedCookieCache(int capacity) {
+        this.verifiedCookies = (capacity > 0) ? new VerifiedCookieCache(capacity, CP_STRIPES) : null;
+    }
+
+    /**
+     * Command server: run cookie verification (signature check, cache lookup or request to the cookie server),
+     * command execution and the response to the client on the given executor (e.g. one virtual thread per
+     * command), so the receive loop only parses and dispatches. A command verified by the cookie server is
+     * executed in a second task when the result arrives.
+     * @param executor executor for verification and execution, null processes inline (default)
+     */
+    public void setCommandExecutor(Executor executor) {
+        this.commandExecutor = executor;
+    }
+
+    /**
+     * Command server: stop the timer tasks of this instance and its workers (verification timeouts,
+     * verification batches). Open batches are sent, commands still waiting for their verification are
+     * no longer answered. Call once, on the instance the workers were created from.
+     */
+    public void close() {
+        if (this.pendingCommands != null)
+            this.pendingCommands.close();
+        if (this.verificationBatcher != null)
+            this.verificationBatcher.close();
+    }
+
+    /**
+     * Client: wait for responses through the deadline based receiver of the phy layer
+     * (PhyProtocol.receiveAsync) instead of a socket timeout per wait. The receiver thread of the
+     * phy instance then owns the socket, so it must not be shared with code calling receive() directly.
+     */
+    public void setAsyncReceive(boolean asyncReceive) {
+        this.asyncReceive = asyncReceive;
+    }
+
+    /**
+     * Client: pipelined mode, up to window commands may be sent before their responses arrive.
+     * Responses are matched to the commands in flight by id, in any order; ids still in flight
+     * are skipped when the id restarts at 0. In this mode receive() also returns error responses,
+     * so the caller can tell which command failed. Every command has its own retransmission timer, a response
+     * to another command does not restart it; a command unanswered after three transmissions is dropped and
+     * receive() throws CookieTimeoutException.
+     * @param window maximum number of commands in flight, 1 is the default one-at-a-time mode
+     */
+    public void setWindow(int window) {
+        if (window < 1 || window > CP_MAX_ID + 1)
+            throw new IllegalArgumentException("window must be in [1, " + (CP_MAX_ID + 1) + "]");
+        this.window = window;
+        this.inFlight = (window > 1) ? new CPCommandMsg[CP_MAX_ID + 1] : null;
+        this.inFlightSentAt = (window > 1) ? new long[CP_MAX_ID + 1] : null;
+        this.inFlightAttempts = (window > 1) ? new byte[CP_MAX_ID + 1] : null;
+        this.inFlightCount = 0;
+        this.transmissions.clear();
+    }
+
+    // pipelined mode also for a window of 1 (used by CPAsyncClient, which always matches by id)
+    void setPipelineWindow(int window) {
+        setWindow(window);
+        if (this.inFlight == null) {
+            this.inFlight = new CPCommandMsg[CP_MAX_ID + 1];
+            this.inFlightSentAt = new long[CP_MAX_ID + 1];
+            this.inFlightAttempts = new byte[CP_MAX_ID + 1];
+        }
+    }
+
+    // client: true if another command can be sent without exceeding the window
+    public boolean canSend() {
+        return (this.inFlight == null) || this.inFlightCount < this.window;
+    }
+
+    // client: number of commands sent whose response has not been received yet (pipelined mode)
+    public int getInFlight() {
+        return this.inFlightCount;
+    }
+
 
     @Override
     public void send(String s, Configuration config) throws IOException, IWProtocolException {
@@ -66,11 +309,20 @@ public class CPProtocol extends Protocol {
             requestCookie();
         }
 
-        // increment ID
-        this.id++;
-        // manage overflow
-        if (this.id > 65535) {
-            this.id = 0; // restart in case the max is reached
+        if (this.inFlight != null) {
+            if (this.inFlightCount >= this.window)
+                throw new IllegalStateException("Window of " + this.window + " commands in flight is full");
+            // next id, skipping ids whose response is still outstanding after a wrap
+            do {
+                this.id = (this.id + 1) & CP_MAX_ID;
+            } while (this.inFlight[this.id] != null);
+        } else {
+            // increment ID
+            this.id++;
+            // manage overflow
+            if (this.id > CP_MAX_ID) {
+                this.id = 0; // restart in case the max is reached
+            }
         }
 
         // create CPCommandMsg object to create the message
@@ -78,10 +330,19 @@ public class CPProtocol extends Protocol {
         msg.create(s, this.id, this.cookie);
 
         // save sent message for verification
-        this.lastSentCommand = msg;
+        if (this.inFlight != null) {
+            this.inFlight[this.id] = msg;
+            this.inFlightSentAt[this.id] = System.nanoTime();
+            this.inFlightAttempts[this.id] = 1;
+            this.inFlightCount++;
+            this.transmissions.addLast(new Transmission(this.id, this.inFlightSentAt[this.id]));
+        } else {
+            this.lastSentCommand = msg;
+            this.lastSentAt = System.nanoTime();
+        }
 
         // send the command to the command server
-        this.PhyProto.send(new String(msg.getDataBytes()), this.PhyConfigCommandServer);
+        sendCP(msg, this.PhyConfigCommandServer, this.binaryFormat);
     }
 
     @Override
@@ -92,8 +353,15 @@ public class CPProtocol extends Protocol {
             int count = 0;
             while (count < 3) {
                 try {
+                    int timeout = rtt(this.PhyConfigCommandServer).rto();
+                    if (this.inFlight != null && this.inFlightCount > 0) {
+                        // pipelined: send the expired commands again, wait until the next one expires
+                        if (!retransmitExpired(CP_ATTEMPTS).isEmpty())
+                            throw new CookieTimeoutException("Server timeout");
+                        timeout = nextRetransmission();
+                    }
                     // call receive from the physical layer
-                    Msg in = this.PhyProto.receive(CP_TIMEOUT);
+                    Msg in = receivePhy(timeout);
 
                     // validation of corrupt packages sent by PhyProtocol in case of exception
                     if (in == null) {
@@ -102,7 +370,8 @@ public class CPProtocol extends Protocol {
                         continue;
                     }
 
-                    System.out.println("received data: " + in.getData());
+                    if (!(in instanceof PhyMsg phyIn && phyIn.isBinary()))
+                        System.out.println("received data: " + in.getData());
 
                     // validate that the message is from the correct protocol (CP)
                     if (((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP) {
@@ -111,8 +380,7 @@ public class CPProtocol extends Protocol {
                     }
 
                     // call parser
-                    CPMsg cpmIn = new CPMsg();
-                    cpmIn = (CPMsg) cpmIn.parse(in.getData());
+                    CPMsg cpmIn = parseCP(in);
                     System.out.println("parsed class: " + cpmIn.getClass().getSimpleName());
 
                     // verify if response is CPCommandResponseMsg instance
@@ -122,12 +390,26 @@ public class CPProtocol extends Protocol {
                         continue; // not a command response, ignore
                     }
 
+                    // pipelined: any command in flight may be answered
+                    if (this.inFlight != null) {
+                        if (!takeInFlight(response.getId())) {
+                            System.out.println("ID Mismatch - not in flight: " + response.getId());
+                            count++;
+                            continue;
+                        }
+                        return response;
+                    }
+
                     // verify ID if command is not null
                     if (lastSentCommand != null && response.getId() != this.lastSentCommand.getId()) {
                         System.out.println("ID Mismatch - expected: " + lastSentCommand.getId() + " received: " + response.getId());
                         count++;
                         continue; // if incorrect ID wait for the correct response
                     }
+                    if (lastSentCommand != null && this.lastSentAt >= 0) {
+                        rtt(this.PhyConfigCommandServer).sample((System.nanoTime() - this.lastSentAt) / 1e6);
+                        this.lastSentAt = -1;
+                    }
 
                     // verify success
                     if (!response.isSuccess()) {
@@ -140,9 +422,16 @@ public class CPProtocol extends Protocol {
                     return response; // return exit response
 
                 } catch (SocketTimeoutException e) {
+                    // pipelined: the timers of the single commands are checked above
+                    if (this.inFlight != null && this.inFlightCount > 0)
+                        continue;
                     // if timeout exception is reached increment count and continue
                     System.out.println("timeout in attempt " + count);
                     count++;
+                    // send the command(s) again with a doubled timeout
+                    rtt(this.PhyConfigCommandServer).backoff();
+                    if (count < 3)
+                        retransmit();
                 } catch (IllegalMsgException e) {
                     // catches illegal message exceptions
                     System.out.println("corrupt message: " + e.getMessage());
@@ -150,47 +439,123 @@ public class CPProtocol extends Protocol {
                 }
             }
             // if loop ends, throw server timeout
+            if (this.inFlight != null)
+                dropInFlight();
             throw new CookieTimeoutException("Server timeout");
         }else {
             // Server logic:
-            Msg in = this.PhyProto.receive();
+            return dispatch(this.PhyProto.receive());
+        }
+    }
 
-            // validate if package is for this protocol
-            if (((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP) {
-                return null; // if not, ignore package
-            }
+    /**
+     * Batch receive for servers: drains every datagram already queued on the phy layer
+     * (at most max) and processes them as one unit.
+     * @param max maximum number of datagrams handled by this call
+     * @return the CP messages that were processed (messages for other protocols or malformed ones are skipped)
+     */
+    public List<Msg> receiveBatch(int max) throws IOException, IWProtocolException {
+        if (this.role == cp_role.CLIENT) {
+            // the client waits for exactly one response
+            return List.of(receive());
+        }
+        return dispatchBatch(this.PhyProto.receiveBatch(max));
+    }
 
-            // parse message
-            CPMsg cpmIn;
+    /**
+     * Process a batch of phy messages that was already received by the caller.
+     * Every message of the batch is processed even if one of them fails, the first error is rethrown afterwards.
+     * Messages sent while processing the batch are queued and flushed together at the end.
+     */
+    public List<Msg> dispatchBatch(List<Msg> batch) throws IOException, IWProtocolException {
+        List<Msg> processed = new ArrayList<>(batch.size());
+        IOException ioError = null;
+        IWProtocolException protoError = null;
+        this.PhyProto.beginBatch();
+        try {
+            for (Msg in : batch) {
+                try {
+                    Msg cpmIn = dispatch(in);
+                    if (cpmIn != null)
+                        processed.add(cpmIn);
+                } catch (IOException e) {
+                    if (ioError == null) ioError = e;
+                } catch (IWProtocolException e) {
+                    if (protoError == null) protoError = e;
+                }
+            }
+        } finally {
             try {
-                CPMsg parser = new CPMsg();
-                cpmIn = (CPMsg) parser.parse(in.getData());
-                cpmIn.setConfiguration(in.getConfiguration());
-            } catch (IWProtocolException e) {
-                return null;
+                this.PhyProto.endBatch();
+            } catch (IOException e) {
+                if (ioError == null) ioError = e;
             }
+        }
+        if (ioError != null) throw ioError;
+        if (protoError != null) throw protoError;
+        return processed;
+    }
 
-            // ramification of server processing methods:
-            if (this.role == cp_role.COOKIE) {
-                // cookie server processing method
-                if (cpmIn instanceof CPCookieRequestMsg) {
-                    // process cookie
-                    cookieProcess(cpmIn);
-                }else if (cpmIn instanceof CPCookieVerificationRequestMsg){
-                    handleVerificationRequest(cpmIn);
-                }
+    // server side processing of a single message received from the phy layer
+    private Msg dispatch(Msg in) throws IOException, IWProtocolException {
+        // validate if package is for this protocol (corrupt datagrams are delivered as null)
+        if (in == null || ((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP) {
+            return null; // if not, ignore package
+        }
 
-            } else if (this.role == cp_role.COMMAND) {
-                // command server processing method
-                if (cpmIn instanceof CPCommandMsg) {
-                    // process command
-                    commandProcess(cpmIn);
-                }else if  (cpmIn instanceof CPCookieVerificationResponseMsg) {
-                    handleVerificationResponse((CPCookieVerificationResponseMsg) cpmIn);
-                }
+        // parse message
+        CPMsg cpmIn;
+        try {
+            cpmIn = parseCP(in);
+            cpmIn.setConfiguration(in.getConfiguration());
+        } catch (IWProtocolException e) {
+            return null;
+        }
+
+        // ramification of server processing methods:
+        if (this.role == cp_role.COOKIE) {
+            // cookie server processing method
+            if (cpmIn instanceof CPCookieRequestMsg) {
+                // process cookie
+                cookieProcess(cpmIn);
+            }else if (cpmIn instanceof CPCookieVerificationRequestMsg){
+                handleVerificationRequest(cpmIn);
+            }else if (cpmIn instanceof CPCookieBatchVerificationRequestMsg){
+                handleBatchVerificationRequest((CPCookieBatchVerificationRequestMsg) cpmIn);
+            }
+
+        } else if (this.role == cp_role.COMMAND) {
+            // command server processing method
+            if (cpmIn instanceof CPCommandMsg cmd) {
+                // a copy sent again by the client is answered without executing the command twice
+                if (replayDuplicate(cmd))
+                    return cpmIn;
+                // process command
+                if (this.commandExecutor == null)
+                    commandProcess(cmd);
+                else
+                    this.commandExecutor.execute(() -> processOnExecutor(cmd));
+            }else if  (cpmIn instanceof CPCookieVerificationResponseMsg) {
+                handleVerificationResponse((CPCookieVerificationResponseMsg) cpmIn);
+            }else if  (cpmIn instanceof CPCookieBatchVerificationResponseMsg) {
+                handleBatchVerificationResponse((CPCookieBatchVerificationResponseMsg) cpmIn);
             }
-            return cpmIn; // return the message
         }
+        return cpmIn; // return the message
+    }
+
+    // parse the payload of a phy message in the format it was sent in
+    private CPMsg parseCP(Msg in) throws IWProtocolException {
+        CPMsg parser = new CPMsg();
+        if (in instanceof PhyMsg phyIn && phyIn.isBinary())
+            return parser.parseBinary(phyIn.getPayload());
+        return (CPMsg) parser.parse(in.getData());
+    }
+
+    // hand a CP message to the phy layer in the selected wire format, it is encoded in place
+    private void sendCP(CPMsg msg, PhyConfiguration to, boolean binary) throws IOException {
+        msg.setBinary(binary);
+        this.PhyProto.send(msg, to);
     }
 
     // Processing of the CookieRequestMsg
@@ -199,8 +564,17 @@ public class CPProtocol extends Protocol {
         PhyConfiguration clientConfig = (PhyConfiguration) cpmIn.getConfiguration();
         CPCookieResponseMsg resMsg;
 
-        // if server full, reject request:
-        if (cookieMap.size() >= CP_HASHMAP_SIZE) {
+        // the cookie store is thread safe, it may be shared by several worker threads
+        long now = System.currentTimeMillis();
+        long newCookieValue = (cookieSigner != null)
+                ? cookieSigner.issue(clientConfig, now)
+                : cookieStore.issue(clientConfig, now);
+        if (newCookieValue == CookieStore.UNSUPPORTED_ADDRESS) {
+            // the cookie store cannot keep this kind of client address (e.g. IPv6 in a packed store)
+            resMsg = new CPCookieResponseMsg(false);
+            resMsg.create("Unsupported client address");
+        } else if (newCookieValue < 0) {
+            // if server full, reject request:
             resMsg = new CPCookieResponseMsg(false); // success = false
             resMsg.create("Server full");
         } else {
@@ -210,43 +584,220 @@ public class CPProtocol extends Protocol {
              *
              * DECISION: Allow premature cookie renewal by overwriting the old entry.
              * REASONING: According to the specification, any previously issued cookie
-             * for a client must be invalidated when a new one is requested. By using
-             * cookieMap.put(), the old Cookie object (including its old timestamp) is
-             * replaced, effectively invalidating the previous session without requiring
-             * complex state checks, keeping the server stateless regarding history.
+             * for a client must be invalidated when a new one is requested. The cookie
+             * store replaces the old cookie (including its old timestamp), effectively
+             * invalidating the previous session without requiring complex state checks,
+             * keeping the server stateless regarding history.
              */
 
-            // generate new cookie
-            int newCookieValue = rnd.nextInt(Integer.MAX_VALUE);
-            Cookie cookie = new Cookie(System.currentTimeMillis(), newCookieValue);
-
-            // store new cookie with put() so it overwrites if one already exists for that client.
-            cookieMap.put(clientConfig, cookie);
-
             // return ACK
             resMsg = new CPCookieResponseMsg(true); // success = true
-            resMsg.create(Integer.toString(newCookieValue));
+            resMsg.create(Long.toString(newCookieValue));
         }
 
-        // return the response to the client
-        this.PhyProto.send(new String(resMsg.getDataBytes()), clientConfig);
+        // return the response to the client (in the format of the request)
+        sendCP(resMsg, clientConfig, cpmIn.isBinary());
     }
 
     // Processing of commands received
-    private void commandProcess(CPMsg cpmIn) throws IOException, IWProtocolException {
-        CPCommandMsg cmd = (CPCommandMsg) cpmIn;
-        // add message to the pending command list
-        this.pendingCommands.add(cmd);
+    // runs inline or as a task of the command executor, so locally verified commands are executed right away
+    private void commandProcess(CPCommandMsg cmd) throws IOException, IWProtocolException {
+        if (this.cookieSigner != null) {
+            // signed cookie -> verified locally, no round trip to the cookie server
+            PhyConfiguration client = (PhyConfiguration) cmd.getConfiguration();
+            executeCommand(cmd, cookieSigner.verify(cmd.getCookie(), client, System.currentTimeMillis()));
+            return;
+        }
+        // verified before for this client -> no round trip to the cookie server
+        if (this.verifiedCookies != null && this.verifiedCookies.contains((PhyConfiguration) cmd.getConfiguration(),
+                cmd.getCookie(), System.currentTimeMillis())) {
+            executeCommand(cmd, true);
+            return;
+        }
+        // the cookie server that issued the cookie
+        PhyConfiguration cookieServer = (this.cookieShards != null)
+                ? this.cookieShards.get(this.cookieShards.shardOf(cmd.getCookie()))
+                : this.PhyConfigCookieServer;
+
+        // the result is matched by correlation id, so verifications to several cookie servers can be in flight
+        int correlationId = this.pendingCommands.add(cmd, cookieServer, System.currentTimeMillis());
+        if (correlationId < 0) {
+            // cookie server does not keep up -> shed the command instead of growing the pending set
+            rejectCommand(cmd, "Too many pending verifications");
+            return;
+        }
+
+        if (this.verificationBatcher != null) {
+            this.verificationBatcher.add(cookieServer, correlationId, cmd.getCookie());
+            return;
+        }
 
         // create new verification request for the cookie server
         CPCookieVerificationRequestMsg vReq = new CPCookieVerificationRequestMsg();
-        vReq.create(cmd.getCookie());
-
-        // send message to cookie server
-        this.PhyProto.send(new String(vReq.getDataBytes()), this.PhyConfigCookieServer);
+        vReq.create(cmd.getCookie(), correlationId);
+        sendCP(vReq, cookieServer, this.binaryFormat);
         System.out.println("VALIDATION SENT: Pending validation for cookie " + cmd.getCookie());
     }
 
+    // pipelined client: remove the answered command from the table, false if id is not in flight
+    private boolean takeInFlight(int id) {
+        if (id < 0 || id > CP_MAX_ID || this.inFlight[id] == null)
+            return false;
+        if (this.inFlightAttempts[id] == 1)
+            rtt(this.PhyConfigCommandServer).sample((System.nanoTime() - this.inFlightSentAt[id]) / 1e6);
+        this.inFlight[id] = null;
+        this.inFlightCount--;
+        pruneTransmissions();
+        return true;
+    }
+
+    // pipelined client: true if t is the last transmission of a command still in flight
+    private boolean isCurrent(Transmission t) {
+        return this.inFlight[t.id] != null && this.inFlightSentAt[t.id] == t.sentAt;
+    }
+
+    // pipelined client: skip the outdated entries at the head of the transmission order
+    private void pruneTransmissions() {
+        while (!this.transmissions.isEmpty() && !isCurrent(this.transmissions.peekFirst()))
+            this.transmissions.pollFirst();
+    }
+
+    // retransmission timeout estimator of a remote endpoint
+    private RttEstimator rtt(PhyConfiguration remote) {
+        // a command may wait up to CP_VERIFY_TIMEOUT on the command server, a cookie request is answered right away
+        long minRto = (remote != null && remote.equals(this.PhyConfigCommandServer)) ? CP_MIN_COMMAND_RTO : CP_MIN_RTO;
+        return this.rttEstimators.computeIfAbsent(remote, k -> new RttEstimator(CP_TIMEOUT, minRto, CP_MAX_RTO));
+    }
+
+    // one-at-a-time client: send the unanswered command again, its response gives no RTT sample anymore
+    private void retransmit() throws IOException {
+        if (this.lastSentCommand != null) {
+            sendCP(this.lastSentCommand, this.PhyConfigCommandServer, this.binaryFormat);
+            this.lastSentAt = -1;
+        }
+    }
+
+    // pipelined client: current retransmission timeout of the command server in ms
+    int commandTimeout() {
+        return rtt(this.PhyConfigCommandServer).rto();
+    }
+
+    // pipelined client: ms until the first command in flight times out, at least 1
+    int nextRetransmission() {
+        pruneTransmissions();
+        int rto = commandTimeout();
+        Transmission t = this.transmissions.peekFirst();
+        if (t == null)
+            return rto;
+        long left = rto - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t.sentAt);
+        return (int) Math.max(1, Math.min(rto, left));
+    }
+
+    /*
+     * pipelined client: send the commands again whose last transmission is at least commandTimeout() ms old,
+     * a command already sent maxAttempts times is dropped instead and its id becomes free again
+     * the timeout is doubled once if any command expired, later responses of these commands give no RTT sample
+     * returns the ids of the dropped commands
+     */
+    List<Integer> retransmitExpired(int maxAttempts) throws IOException {
+        long now = System.nanoTime();
+        long rto = TimeUnit.MILLISECONDS.toNanos(commandTimeout());
+        List<Integer> expired = new ArrayList<>();
+        while (!this.transmissions.isEmpty()) {
+            Transmission t = this.transmissions.peekFirst();
+            boolean current = isCurrent(t);
+            // in send order -> the first command that has not expired ends the scan
+            if (current && now - t.sentAt < rto)
+                break;
+            this.transmissions.pollFirst();
+            if (current)
+                expired.add(t.id);
+        }
+        List<Integer> dropped = new ArrayList<>();
+        if (expired.isEmpty())
+            return dropped;
+        rtt(this.PhyConfigCommandServer).backoff();
+        for (int id : expired) {
+            if (this.inFlightAttempts[id] >= maxAttempts) {
+                this.inFlight[id] = null;
+                this.inFlightCount--;
+                dropped.add(id);
+                continue;
+            }
+            // timer restarts before sending, so a failed send does not lose the command's entry
+            this.inFlightAttempts[id]++;
+            this.inFlightSentAt[id] = System.nanoTime();
+            this.transmissions.addLast(new Transmission(id, this.inFlightSentAt[id]));
+            sendCP(this.inFlight[id], this.PhyConfigCommandServer, this.binaryFormat);
+        }
+        return dropped;
+    }
+
+    // pipelined client: the outstanding commands are considered lost, their ids become free again
+    private void dropInFlight() {
+        Arrays.fill(this.inFlight, null);
+        this.inFlightCount = 0;
+        this.transmissions.clear();
+    }
+
+    // pipelined client: send a command, returns its id
+    int sendCommand(String s) throws IOException, IWProtocolException {
+        send(s, null);
+        return this.id;
+    }
+
+    /*
+     * pipelined client: wait at most timeout ms for one datagram and match it against the commands in flight,
+     * without the retries and progress output of receive()
+     * returns null if nothing matching arrived (timeout, other protocol, malformed or unknown id)
+     */
+    CPCommandResponseMsg pollResponse(int timeout) throws IOException {
+        Msg in;
+        try {
+            in = receivePhy(timeout);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        if (in == null || ((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP)
+            return null;
+        try {
+            if (parseCP(in) instanceof CPCommandResponseMsg response && takeInFlight(response.getId()))
+                return response;
+        } catch (IWProtocolException ignored) {
+        }
+        return null;
+    }
+
+    /*
+     * client: wait at most timeout ms for one datagram, SocketTimeoutException if none arrived
+     * with async receive the wait is a future completed by the phy receiver thread, an interrupt of the
+     * waiting thread ends it with InterruptedIOException
+     */
+    private Msg receivePhy(int timeout) throws IOException {
+        if (!this.asyncReceive)
+            return this.PhyProto.receive(timeout);
+        try {
+            return this.PhyProto.receiveAsync(timeout).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Receive interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io)
+                throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // client: true once a cookie was obtained and not dropped
+    boolean hasCookie() {
+        return this.cookie >= 0;
+    }
+
+    // client: forget the cookie, e.g. after the server rejected it, so the next command requests a new one
+    void dropCookie() {
+        this.cookie = -1;
+    }
+
     // Method for the client to request a cookie
     public void requestCookie() throws IOException, IWProtocolException {
         CPCookieRequestMsg reqMsg = new CPCookieRequestMsg();
@@ -255,17 +806,30 @@ public class CPProtocol extends Protocol {
 
         boolean waitForResp = true;
         int count = 0;
+        int sent = 0;
         while(waitForResp && count < 3) {
-            this.PhyProto.send(new String(reqMsg.getDataBytes()), this.PhyConfigCookieServer);
+            // sharded -> try the next shard after a timeout
+            PhyConfiguration cookieServer = (this.cookieShards != null)
+                    ? this.cookieShards.get((this.cookieShards.shardOf(this.cookieShardKey) + count) % this.cookieShards.size())
+                    : this.PhyConfigCookieServer;
+            RttEstimator rtt = rtt(cookieServer);
+            sendCP(reqMsg, cookieServer, this.binaryFormat);
+            long sentAt = System.nanoTime();
+            sent++;
 
             try {
-                Msg in = this.PhyProto.receive(CP_TIMEOUT);
+                Msg in = receivePhy(rtt.rto());
                 if (((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP)
                     continue;
-                resMsg = ((CPMsg) resMsg).parse(in.getData());
-                if(resMsg instanceof CPCookieResponseMsg)
+                resMsg = parseCP(in);
+                if(resMsg instanceof CPCookieResponseMsg) {
                     waitForResp = false;
+                    // Karn's rule: a response after several requests cannot be matched to one of them
+                    if (sent == 1)
+                        rtt.sample((System.nanoTime() - sentAt) / 1e6);
+                }
             } catch (SocketTimeoutException e) {
+                rtt.backoff();
                 count += 1;
             } catch (IWProtocolException ignored) {
             }
@@ -284,64 +848,158 @@ public class CPProtocol extends Protocol {
         CPCookieVerificationRequestMsg vReq = (CPCookieVerificationRequestMsg) cpmIn;
         PhyConfiguration senderConfig = (PhyConfiguration) vReq.getConfiguration();
 
-        boolean isValid = false;
+        long remaining = remainingLifetime(vReq.getCookieValue(), System.currentTimeMillis());
+
+        // send response to command server, echoing the correlation id of the request
+        CPCookieVerificationResponseMsg vRes = new CPCookieVerificationResponseMsg();
+        vRes.create(remaining > 0, remaining, vReq.getCorrelationId());
+        sendCP(vRes, senderConfig, vReq.isBinary());
+    }
+
+    // handles a batch of cookie verifications for cookie-server, answered in one pass with one response
+    private void handleBatchVerificationRequest(CPCookieBatchVerificationRequestMsg vReq) throws IWProtocolException, IOException {
         long now = System.currentTimeMillis();
-        int cookieToVerify = vReq.getCookieValue();
-
-        // search for the cookie in the cookieMap to see if it has expired (TTL)
-        // defined time-to-live: 60s
-        final long COOKIE_LIFETIME = 60000;
-        for (Cookie c : cookieMap.values()) {
-            if (c.getCookieValue() == cookieToVerify) {
-                if ((now - c.getTimeOfCreation()) < COOKIE_LIFETIME) {
-                    isValid = true;
-                }
-                break;
-            }
+        int n = vReq.getCount();
+        int[] ids = new int[n];
+        boolean[] results = new boolean[n];
+        long[] remaining = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = vReq.getId(i);
+            remaining[i] = remainingLifetime(vReq.getCookie(i), now);
+            results[i] = remaining[i] > 0;
         }
+        CPCookieBatchVerificationResponseMsg vRes = new CPCookieBatchVerificationResponseMsg();
+        vRes.create(ids, results, remaining, n);
+        sendCP(vRes, (PhyConfiguration) vReq.getConfiguration(), vReq.isBinary());
+    }
 
-        // send response to command server
-        CPCookieVerificationResponseMsg vRes = new CPCookieVerificationResponseMsg();
-        vRes.create(isValid);
-        this.PhyProto.send(new String(vRes.getDataBytes()), senderConfig);
+    // look the cookie up by value and check if it has expired (TTL), 0 -> invalid
+    private long remainingLifetime(long cookie, long now) {
+        // a server issuing signed cookies stores none, they are verified by the command server itself
+        if (cookieSigner != null || cookie != (int) cookie)
+            return 0;
+        return cookieStore.remainingLifetime((int) cookie, now);
     }
 
     // handles cookie verification for command-server (input: cookie server response)
     private void handleVerificationResponse(CPCookieVerificationResponseMsg vRes) throws IOException, IWProtocolException {
-        if (!pendingCommands.isEmpty()) {
-            // obtain the command to check
-            CPCommandMsg originalCmd = pendingCommands.removeFirst();
-
-            CPCommandResponseMsg clientRes = new CPCommandResponseMsg();
-
-            if (vRes.isSuccess()) {
-                // if success return ok & execute
-                System.out.println("EXECUTION: " + originalCmd.getCommand() + " " + originalCmd.getMessage());
-                clientRes.create(originalCmd.getId(), true, "Command executed successfully");
-            } else {
-                // if fail inform client
-                clientRes.create(originalCmd.getId(), false, "Invalid or expired cookie");
+        // without a correlation id the response cannot be matched to a command
+        if (vRes.getCorrelationId() < 0)
+            return;
+        CPCommandMsg originalCmd = pendingCommands.remove(vRes.getCorrelationId(), (PhyConfiguration) vRes.getConfiguration());
+        // unknown id -> duplicate, unsolicited, late or forged result (not from the cookie server asked)
+        if (originalCmd == null)
+            return;
+
+        rememberVerified(originalCmd, vRes.isSuccess(), vRes.getRemainingLifetime());
+        runCommand(originalCmd, vRes.isSuccess());
+    }
+
+    // handles the results of a batch verification for command-server
+    private void handleBatchVerificationResponse(CPCookieBatchVerificationResponseMsg vRes) throws IOException, IWProtocolException {
+        for (int i = 0; i < vRes.getCount(); i++) {
+            CPCommandMsg originalCmd = pendingCommands.remove(vRes.getId(i), (PhyConfiguration) vRes.getConfiguration());
+            // unknown id -> duplicate, unsolicited or forged result
+            if (originalCmd != null) {
+                rememberVerified(originalCmd, vRes.isSuccess(i), vRes.getRemainingLifetime(i));
+                runCommand(originalCmd, vRes.isSuccess(i));
             }
+        }
+    }
+
+    // cache a positive result until the cookie expires; without a reported lifetime nothing is cached
+    private void rememberVerified(CPCommandMsg cmd, boolean verified, long remaining) {
+        if (this.verifiedCookies != null && verified && remaining > 0)
+            this.verifiedCookies.put((PhyConfiguration) cmd.getConfiguration(), cmd.getCookie(),
+                    System.currentTimeMillis() + remaining);
+    }
 
-            // Enviar respuesta final al cliente original
-            this.PhyProto.send(new String(clientRes.getDataBytes()), (PhyConfiguration) originalCmd.getConfiguration());
+    // true if cmd is a copy of a command received before, the stored response (if any yet) is sent again
+    private boolean replayDuplicate(CPCommandMsg cmd) throws IOException {
+        PhyConfiguration client = (PhyConfiguration) cmd.getConfiguration();
+        CPCommandResponseMsg res = this.recentResponses.begin(client, cmd.getCookie(), cmd.getId(),
+                System.currentTimeMillis());
+        if (res == null)
+            return false;
+        if (res != RecentResponses.IN_PROGRESS)
+            sendCP(res, client, cmd.isBinary());
+        return true;
+    }
+
+    // command executor task: verification and, if verified locally, execution of a received command
+    private void processOnExecutor(CPCommandMsg cmd) {
+        try {
+            commandProcess(cmd);
+        } catch (IOException | IWProtocolException e) {
+            System.out.println("Failed to process command " + cmd.getId() + ": " + e.getMessage());
         }
     }
 
-}
+    // execute inline or on the command executor
+    private void runCommand(CPCommandMsg originalCmd, boolean verified) throws IOException, IWProtocolException {
+        if (this.commandExecutor == null) {
+            executeCommand(originalCmd, verified);
+            return;
+        }
+        // slow commands must not stall the receive loop
+        this.commandExecutor.execute(() -> {
+            try {
+                executeCommand(originalCmd, verified);
+            } catch (IOException | IWProtocolException e) {
+                System.out.println("Failed to answer command " + originalCmd.getId() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // execute a verified command and answer the client
+    private void executeCommand(CPCommandMsg originalCmd, boolean verified) throws IOException, IWProtocolException {
+        CPCommandResponseMsg clientRes = new CPCommandResponseMsg();
+        PhyConfiguration client = (PhyConfiguration) originalCmd.getConfiguration();
+
+        if (verified) {
+            // if success return ok & execute
+            System.out.println("EXECUTION: " + originalCmd.getCommand() + " " + originalCmd.getMessage());
+            clientRes.create(originalCmd.getId(), true, "Command executed successfully");
+            // stored before sending, copies get this response even if the send fails
+            this.recentResponses.complete(client, originalCmd.getCookie(), originalCmd.getId(),
+                    true, clientRes.getResponseMessage(), System.currentTimeMillis());
+        } else {
+            // if fail inform client
+            clientRes.create(originalCmd.getId(), false, "Invalid or expired cookie");
+            this.recentResponses.forget(client, originalCmd.getCookie(), originalCmd.getId());
+        }
 
-class Cookie {
-    private final long timeOfCreation;
-    private final int cookieValue;
+        // Enviar respuesta final al cliente original
+        sendCP(clientRes, (PhyConfiguration) originalCmd.getConfiguration(), originalCmd.isBinary());
+    }
 
-    public Cookie(long toc, int c) {
-        this.timeOfCreation = toc;
-        this.cookieValue = c;
+    // answer the client with an error without executing the command
+    private void rejectCommand(CPCommandMsg originalCmd, String reason) throws IOException, IWProtocolException {
+        CPCommandResponseMsg clientRes = new CPCommandResponseMsg();
+        clientRes.create(originalCmd.getId(), false, reason);
+        this.recentResponses.forget((PhyConfiguration) originalCmd.getConfiguration(), originalCmd.getCookie(),
+                originalCmd.getId());
+        sendCP(clientRes, (PhyConfiguration) originalCmd.getConfiguration(), originalCmd.isBinary());
     }
 
-    public long getTimeOfCreation() {
-        return timeOfCreation;
+    // called by the timer of pendingCommands: the cookie server did not answer in time
+    private void verificationTimedOut(CPCommandMsg originalCmd) {
+        try {
+            rejectCommand(originalCmd, "Cookie verification timed out");
+        } catch (IOException | IWProtocolException e) {
+            System.out.println("Failed to answer command " + originalCmd.getId() + ": " + e.getMessage());
+        }
     }
-    public int getCookieValue() { return cookieValue;}
-}
 
+
+    // one transmission of a pipelined command, see transmissions
+    private static final class Transmission {
+        final int id;
+        final long sentAt;
+
+        Transmission(int id, long sentAt) {
+            this.id = id;
+            this.sentAt = sentAt;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package cp;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/*
+ * Daemon timer thread shared by the timers of all CP instances of the process
+ * (verification timeouts of PendingCommands, deadlines of VerificationBatcher)
+ * Tasks run one after the other and must be short; cancelled tasks are removed from the queue right away,
+ * so closed instances do not stay reachable from the timer.
+ */
+final class CPTimer {
+    static final ScheduledExecutorService SCHEDULER = create();
+
+    private CPTimer() {}
+
+    private static ScheduledExecutorService create() {
+        ScheduledThreadPoolExecutor timer = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, r -> {
+            Thread t = new Thread(r, "cp-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
@@ -0,0 +1,84 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring over the instances (shards) of the cookie service.
+ * Every shard is placed on the ring at several points (virtual nodes), a key belongs to the shard of the
+ * first point at or after its hash. Points only depend on the shard addresses and their order, so all clients,
+ * command servers and cookie servers configured with the same list agree on the owner of a key,
+ * and adding a shard only moves the keys of the ring segments it takes over.
+ */
+public class ConsistentHashRing {
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+    private final PhyConfiguration[] shards;
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    public ConsistentHashRing(List<PhyConfiguration> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(List<PhyConfiguration> shards, int virtualNodes) {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("At least one shard is required");
+        this.shards = shards.toArray(new PhyConfiguration[0]);
+        for (int s = 0; s < this.shards.length; s++) {
+            long base = addressHash(this.shards[s]);
+            for (int v = 0; v < virtualNodes; v++)
+                ring.putIfAbsent(mix(base + v * 0x9E3779B97F4A7C15L), s);
+        }
+    }
+
+    /**
+     * @param key routing key, e.g. a cookie value
+     * @return index of the shard owning the key
+     */
+    public int shardOf(long key) {
+        Map.Entry<Long, Integer> e = ring.ceilingEntry(mix(key));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * @return address of the shard with the given index
+     */
+    public PhyConfiguration get(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * @return index of the shard with the given address, -1 if it is not part of the ring
+     */
+    public int indexOf(PhyConfiguration shard) {
+        for (int s = 0; s < shards.length; s++) {
+            if (shards[s].equals(shard))
+                return s;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return shards.length;
+    }
+
+    // deterministic across processes (no identity or string hash codes)
+    private static long addressHash(PhyConfiguration shard) {
+        long h = shard.getRemotePort();
+        for (byte b : shard.getRemoteIPAddress().getAddress())
+            h = h * 31 + (b & 0xff);
+        return mix(h);
+    }
+
+    // 64 bit finalizer of MurmurHash3
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,26 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+class Cookie {
+    private final long timeOfCreation;
+    private final int cookieValue;
+    private final PhyConfiguration client;
+
+    public Cookie(long toc, int c) {
+        this(toc, c, null);
+    }
+
+    public Cookie(long toc, int c, PhyConfiguration client) {
+        this.timeOfCreation = toc;
+        this.cookieValue = c;
+        this.client = client;
+    }
+
+    public long getTimeOfCreation() {
+        return timeOfCreation;
+    }
+    public int getCookieValue() { return cookieValue;}
+    public PhyConfiguration getClient() { return client; }
+}
+
@@ -0,0 +1,85 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Issues and checks stateless cookies: a cookie carries its own expiry and a MAC over the client address,
+ * the client port and the expiry, computed with a key shared by the cookie and the command server.
+ * The cookie server keeps no per-client state and the command server verifies cookies without asking it.
+ * <p>
+ * cookie (63 bit, always positive): &lt;expiry:31&gt; &lt;mac:32&gt;
+ *   expiry: seconds since 2020-01-01 UTC, mac: first 4 bytes of HmacSHA256(key, address | port | expiry)
+ * <p>
+ * Unlike stored cookies, a renewed cookie does not invalidate the previous one, it stays valid until it expires.
+ */
+public class CookieSigner {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final long EPOCH_SECONDS = 1577836800L; // 2020-01-01T00:00:00Z
+    private final SecretKeySpec key;
+    private final long lifetime;
+    // Mac instances are not thread safe -> one per thread
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param key shared secret, the same on the cookie and the command server
+     * @param lifetime cookie lifetime in ms
+     */
+    public CookieSigner(byte[] key, long lifetime) {
+        if (key == null || key.length == 0)
+            throw new IllegalArgumentException("Cookie key must not be empty");
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.lifetime = lifetime;
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * @param client address of the client the cookie is issued to
+     * @param now current time in ms
+     * @return cookie for the client, valid for the lifetime from now
+     */
+    public long issue(PhyConfiguration client, long now) {
+        // round up, a cookie must never expire before its lifetime
+        long expiry = (now + lifetime + 999) / 1000 - EPOCH_SECONDS;
+        return (expiry << 32) | sign(client, expiry);
+    }
+
+    /**
+     * @param cookie cookie presented by the client
+     * @param client address the cookie was received from
+     * @param now current time in ms
+     * @return true if the cookie was issued to this client by a server with the same key and has not expired
+     */
+    public boolean verify(long cookie, PhyConfiguration client, long now) {
+        if (cookie < 0)
+            return false;
+        long expiry = cookie >>> 32;
+        if ((expiry + EPOCH_SECONDS) * 1000 <= now)
+            return false;
+        return (cookie & 0xffffffffL) == sign(client, expiry);
+    }
+
+    // 32 bit MAC over address, port and expiry
+    private long sign(PhyConfiguration client, long expiry) {
+        byte[] address = client.getRemoteIPAddress().getAddress();
+        ByteBuffer input = ByteBuffer.allocate(address.length + 6);
+        input.put(address).putShort((short) client.getRemotePort()).putInt((int) expiry);
+        byte[] tag = mac.get().doFinal(input.array());
+        return ByteBuffer.wrap(tag).getInt() & 0xffffffffL;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac m = Mac.getInstance(ALGORITHM);
+            m.init(key);
+            return m;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
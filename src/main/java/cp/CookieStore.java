@@ -0,0 +1,63 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Table of the cookies issued by a cookie server.
+ * Every client holds at most one cookie, issuing a new one invalidates the previous cookie of that client.
+ * Cookie values are unique among the live cookies, so a cookie can be verified by its value alone.
+ * Implementations are thread safe.
+ */
+public interface CookieStore {
+    /** Result of issue() if the store is full. */
+    int FULL = -1;
+    /** Result of issue() if the store cannot keep clients with this kind of address (e.g. IPv6 in a packed store). */
+    int UNSUPPORTED_ADDRESS = -2;
+
+    /**
+     * Issue a new cookie for the client, replacing the cookie it held before.
+     * @param client address of the client
+     * @param now current time in ms
+     * @return the new cookie value (non-negative), FULL or UNSUPPORTED_ADDRESS if the store cannot take the client
+     */
+    int issue(PhyConfiguration client, long now);
+
+    /**
+     * @param cookie cookie value presented by a client
+     * @param now current time in ms
+     * @return true if the cookie was issued by this store and its lifetime has not passed yet
+     */
+    default boolean verify(int cookie, long now) {
+        return remainingLifetime(cookie, now) > 0;
+    }
+
+    /**
+     * Verify the cookie and report how long it stays valid, e.g. for callers that cache the result.
+     * @param cookie cookie value presented by a client
+     * @param now current time in ms
+     * @return remaining lifetime of the cookie in ms, 0 if it is not valid
+     */
+    long remainingLifetime(int cookie, long now);
+
+    /**
+     * Remove cookies whose lifetime has passed.
+     * Stores may work incrementally, but issue() never rejects a client because of expired cookies.
+     * @param now current time in ms
+     * @return number of cookies removed
+     */
+    int expire(long now);
+
+    /**
+     * @return number of cookies currently held (live, and expired ones not removed yet)
+     */
+    int size();
+
+    /**
+     * Restrict the values of newly issued cookies, e.g. to the values owned by one cookie server of a
+     * sharded cookie service (see ConsistentHashRing). Values are drawn until one is accepted.
+     * @param accept predicate a new cookie value has to pass, null accepts every value (default)
+     */
+    void setValueFilter(IntPredicate accept);
+}
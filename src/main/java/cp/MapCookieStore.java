@@ -0,0 +1,94 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/*
+ * CookieStore on top of java.util.HashMap -> accepts any client address
+ * cookieMap: client -> cookie, cookieIndex: cookie value -> cookie (kept consistent with cookieMap)
+ * Expired cookies are evicted from both maps by a timing wheel that is advanced on every call.
+ */
+public class MapCookieStore implements CookieStore {
+    // resolution of the expiry wheel, a cookie lives at most one tick longer than its lifetime
+    private static final long EXPIRY_TICK = 1000;
+    private final int capacity;
+    private final long lifetime;
+    private final HashMap<PhyConfiguration, Cookie> cookieMap = new HashMap<>();
+    private final HashMap<Integer, Cookie> cookieIndex = new HashMap<>();
+    private final TimingWheel<Cookie> cookieExpiry;
+    private final Random rnd;
+    private IntPredicate valueFilter;
+
+    public MapCookieStore(int capacity, long lifetime) {
+        this(capacity, lifetime, new Random());
+    }
+
+    // tests pass a generator with a known sequence of values
+    MapCookieStore(int capacity, long lifetime, Random rnd) {
+        this.capacity = capacity;
+        this.lifetime = lifetime;
+        this.rnd = rnd;
+        this.cookieExpiry = new TimingWheel<>(EXPIRY_TICK,
+                (int) Math.max(1, lifetime / EXPIRY_TICK), System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized int issue(PhyConfiguration client, long now) {
+        // free the slots of expired cookies first, so capacity counts live cookies only
+        expire(now);
+        if (cookieMap.size() >= capacity)
+            return -1;
+
+        // generate new cookie, values are unique so the reverse index stays unambiguous
+        int newCookieValue;
+        do {
+            newCookieValue = rnd.nextInt(Integer.MAX_VALUE);
+        } while (cookieIndex.containsKey(newCookieValue)
+                || (valueFilter != null && !valueFilter.test(newCookieValue)));
+        Cookie cookie = new Cookie(now, newCookieValue, client);
+
+        // store new cookie with put() so it overwrites if one already exists for that client.
+        Cookie oldCookie = cookieMap.put(client, cookie);
+        // the overwritten cookie must no longer be found by value
+        if (oldCookie != null)
+            cookieIndex.remove(oldCookie.getCookieValue());
+        cookieIndex.put(newCookieValue, cookie);
+        cookieExpiry.schedule(cookie, now + lifetime);
+        return newCookieValue;
+    }
+
+    @Override
+    public synchronized long remainingLifetime(int cookie, long now) {
+        expire(now);
+        Cookie c = cookieIndex.get(cookie);
+        return (c == null) ? 0 : Math.max(0, c.getTimeOfCreation() + lifetime - now);
+    }
+
+    /*
+     * a cookie that was replaced by a renewal is only removed from the maps if it is still the current one
+     */
+    @Override
+    public synchronized int expire(long now) {
+        int before = cookieMap.size();
+        cookieExpiry.advance(now, c -> {
+            if (cookieMap.get(c.getClient()) == c)
+                cookieMap.remove(c.getClient());
+            if (cookieIndex.get(c.getCookieValue()) == c)
+                cookieIndex.remove(c.getCookieValue());
+        });
+        return before - cookieMap.size();
+    }
+
+    @Override
+    public synchronized int size() {
+        return cookieMap.size();
+    }
+
+    @Override
+    public synchronized void setValueFilter(IntPredicate accept) {
+        this.valueFilter = accept;
+    }
+}
@@ -0,0 +1,123 @@
+package cp;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * PackedCookieStore kept in a memory-mapped file -> the cookie table survives a restart of the cookie server
+ * file: <header:64> <clients table> <values table> (table layout see PackedCookieStore)
+ * header: <magic:4> <slots:4> <state:4> <size:4> <sweep cursor:4> <unused:4> <lifetime:8>
+ * The tables are used in place, reopening only maps the file. The state field is set to UPDATING before and
+ * back to CLEAN after every modification, so a file left behind by a crash of the server process in the middle
+ * of an update is detected and repaired from its cookie records on reopen (records carry a check field, torn
+ * ones are dropped). This relies on the page cache, which keeps every write of a killed process.
+ * Changes reach the disk only when the kernel writes the pages back or on close(), in no particular order:
+ * after an OS crash or power loss the header may say CLEAN while table pages are stale, so the table is not
+ * crash consistent at that level (forcing the table before every CLEAN would cost one sync per cookie).
+ */
+public class MappedCookieStore extends PackedCookieStore implements AutoCloseable {
+    private static final int MAGIC = 0x43504b31; // "CPK1"
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SLOTS_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int CURSOR_OFFSET = 16;
+    private static final int LIFETIME_OFFSET = 24;
+    private static final int CLEAN = 0;
+    private static final int UPDATING = 1;
+    // ordered access to the state field, table writes must not move across it
+    private static final VarHandle STATE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    private MappedCookieStore(FileChannel channel, MappedByteBuffer map, int capacity, long lifetime, boolean reuse) {
+        super(capacity, lifetime, 0, 0,
+                map.slice(HEADER_SIZE, clientsBytes(capacity)),
+                map.slice(HEADER_SIZE + clientsBytes(capacity), valuesBytes(capacity)));
+        this.channel = channel;
+        this.map = map;
+        if (!reuse) {
+            map.putInt(SLOTS_OFFSET, slotsFor(capacity));
+            map.putLong(LIFETIME_OFFSET, lifetime);
+            map.putInt(SIZE_OFFSET, 0);
+            map.putInt(CURSOR_OFFSET, 0);
+            STATE.setVolatile(map, STATE_OFFSET, CLEAN);
+            map.putInt(MAGIC_OFFSET, MAGIC);
+            map.force();
+            return;
+        }
+        this.size = map.getInt(SIZE_OFFSET);
+        this.sweepCursor = map.getInt(CURSOR_OFFSET) & (slotsFor(capacity) - 1);
+        if ((int) STATE.getVolatile(map, STATE_OFFSET) != CLEAN) {
+            // interrupted update -> the tables may be inconsistent
+            System.out.println("Cookie table was not closed cleanly, repairing");
+            beginUpdate();
+            rebuild(System.currentTimeMillis());
+            endUpdate();
+        }
+    }
+
+    /**
+     * Open the cookie table stored in file, or create a new one.
+     * An existing table is reused if it was written for the same capacity and lifetime, otherwise it is cleared.
+     * @param file file of the table
+     * @param capacity maximum number of live cookies
+     * @param lifetime cookie lifetime in ms
+     * @return the store, close it to write all changes back to the disk
+     */
+    public static MappedCookieStore open(Path file, int capacity, long lifetime) throws IOException {
+        long length = HEADER_SIZE + (long) clientsBytes(capacity) + valuesBytes(capacity);
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean sameSize = channel.size() == length;
+            if (!sameSize)
+                channel.truncate(0); // mapping extends the file with zeros
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            boolean reuse = sameSize && map.getInt(MAGIC_OFFSET) == MAGIC
+                    && map.getInt(SLOTS_OFFSET) == slotsFor(capacity)
+                    && map.getLong(LIFETIME_OFFSET) == lifetime;
+            if (sameSize && !reuse)
+                clear(map);
+            return new MappedCookieStore(channel, map, capacity, lifetime, reuse);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void beginUpdate() {
+        STATE.setVolatile(map, STATE_OFFSET, UPDATING);
+        VarHandle.fullFence();
+    }
+
+    @Override
+    protected void endUpdate() {
+        map.putInt(SIZE_OFFSET, size);
+        map.putInt(CURSOR_OFFSET, sweepCursor);
+        STATE.setVolatile(map, STATE_OFFSET, CLEAN);
+    }
+
+    /**
+     * Write the table back to the disk and release the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    private static void clear(ByteBuffer map) {
+        for (int i = 0; i + 8 <= map.capacity(); i += 8)
+            map.putLong(i, 0);
+    }
+}
@@ -0,0 +1,370 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.net.Inet4Address;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/*
+ * CookieStore for large numbers of clients -> no object per cookie
+ * A client is identified by its IPv4 address and port packed into one long. Two open-addressing
+ * (linear probing) tables live in one ByteBuffer, on the heap or off-heap (direct):
+ *   clients table: <key:8> <value:4>                 client -> current cookie value
+ *   values table : <value:4> <key:8> <created:8> <check:4>   cookie value -> owner and time of creation
+ * Empty slots are marked with key 0 / value 0 (packed keys always carry a marker bit, cookie values start at 1).
+ * Deletion shifts the following entries back, so no tombstones are needed.
+ * The check field is a hash over the other fields of a cookie record, a torn record (e.g. in a file that was
+ * not written back completely, see MappedCookieStore) never verifies.
+ * Expired cookies are removed by an incremental sweep over the values table and by verify(); when the
+ * store is full, issue() sweeps the whole table before rejecting a client.
+ * Clients with other than IPv4 addresses are rejected with UNSUPPORTED_ADDRESS (StripedCookieStore keeps them in a map).
+ */
+public class PackedCookieStore implements CookieStore {
+    private static final int CLIENT_ENTRY = 12;
+    private static final int VALUE_ENTRY = 24;
+    // values table slots checked by one incremental expire() call
+    private static final int SWEEP_SLOTS = 64;
+    private static final long KEY_MARKER = 1L << 48;
+    private final int capacity;
+    private final long lifetime;
+    private final int mask;
+    private final ByteBuffer clients;
+    private final ByteBuffer values;
+    // generated cookie values end with the tagBits low bits of tag (see StripedCookieStore)
+    private final int tagBits;
+    private final int tag;
+    private IntPredicate valueFilter;
+    // accessed by subclasses that persist the table state
+    int size;
+    int sweepCursor;
+
+    public PackedCookieStore(int capacity, long lifetime) {
+        this(capacity, lifetime, false);
+    }
+
+    /*
+     * direct -> keep both tables off-heap, the garbage collector never scans them
+     */
+    public PackedCookieStore(int capacity, long lifetime, boolean direct) {
+        this(capacity, lifetime, direct, 0, 0);
+    }
+
+    PackedCookieStore(int capacity, long lifetime, boolean direct, int tagBits, int tag) {
+        this(capacity, lifetime, tagBits, tag,
+                allocate(slotsFor(capacity) * CLIENT_ENTRY, direct),
+                allocate(slotsFor(capacity) * VALUE_ENTRY, direct));
+    }
+
+    /*
+     * table on the given (zeroed or previously used) buffers of clientsBytes() / valuesBytes() bytes
+     */
+    PackedCookieStore(int capacity, long lifetime, int tagBits, int tag, ByteBuffer clients, ByteBuffer values) {
+        int slots = slotsFor(capacity);
+        if (clients.capacity() != slots * CLIENT_ENTRY || values.capacity() != slots * VALUE_ENTRY)
+            throw new IllegalArgumentException("table buffers do not match capacity " + capacity);
+        this.capacity = capacity;
+        this.lifetime = lifetime;
+        this.mask = slots - 1;
+        this.clients = clients;
+        this.values = values;
+        this.tagBits = tagBits;
+        this.tag = tag & ((1 << tagBits) - 1);
+    }
+
+    @Override
+    public synchronized int issue(PhyConfiguration client, long now) {
+        long key = pack(client);
+        if (key == 0)
+            return UNSUPPORTED_ADDRESS;
+        beginUpdate();
+        try {
+            return issue(key, now);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    private int issue(long key, long now) {
+        sweep(now, SWEEP_SLOTS);
+        int cs = findClient(key);
+        if (cs < 0 && size >= capacity) {
+            // only reject if the table is really full of live cookies
+            sweep(now, mask + 1);
+            if (size >= capacity)
+                return FULL;
+        }
+
+        int value;
+        do {
+            // thread local generator -> no contention between threads issuing cookies
+            value = (ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE >>> tagBits) << tagBits) | tag;
+        } while (findValue(value) >= 0 || (valueFilter != null && !valueFilter.test(value)));
+
+        if (cs >= 0) {
+            // renewal -> invalidate the previous cookie and reuse the client slot
+            int old = clients.getInt(cs * CLIENT_ENTRY + 8);
+            int vs = findValue(old);
+            if (vs >= 0)
+                deleteValue(vs);
+            clients.putInt(cs * CLIENT_ENTRY + 8, value);
+        } else {
+            int slot = hash(key) & mask;
+            while (clients.getLong(slot * CLIENT_ENTRY) != 0)
+                slot = (slot + 1) & mask;
+            clients.putLong(slot * CLIENT_ENTRY, key);
+            clients.putInt(slot * CLIENT_ENTRY + 8, value);
+            size++;
+        }
+        insertValue(value, key, now);
+        return value;
+    }
+
+    @Override
+    public synchronized long remainingLifetime(int cookie, long now) {
+        if (cookie <= 0)
+            return 0;
+        int vs = findValue(cookie);
+        if (vs < 0)
+            return 0;
+        long remaining = values.getLong(vs * VALUE_ENTRY + 12) + lifetime - now;
+        if (intact(vs) && remaining > 0)
+            return remaining;
+        beginUpdate();
+        try {
+            remove(vs);
+        } finally {
+            endUpdate();
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized int expire(long now) {
+        beginUpdate();
+        try {
+            return sweep(now, SWEEP_SLOTS);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /*
+     * hooks around every modification of the tables, used to persist a consistent state (see MappedCookieStore)
+     */
+    protected void beginUpdate() {}
+
+    protected void endUpdate() {}
+
+    /*
+     * rebuild both tables from the intact, unexpired cookie records of the values table
+     * repairs tables whose modification was interrupted (e.g. a crash in the middle of a deletion)
+     * if a client appears several times, its most recent cookie is kept
+     */
+    synchronized void rebuild(long now) {
+        // client key -> {cookie value, time of creation}
+        HashMap<Long, long[]> latest = new HashMap<>();
+        for (int vs = 0; vs <= mask; vs++) {
+            int value = values.getInt(vs * VALUE_ENTRY);
+            if (value == 0 || !intact(vs))
+                continue;
+            long key = values.getLong(vs * VALUE_ENTRY + 4);
+            long time = values.getLong(vs * VALUE_ENTRY + 12);
+            long[] known = latest.get(key);
+            if (now - time < lifetime && (known == null || known[1] < time))
+                latest.put(key, new long[]{value, time});
+        }
+        for (int i = 0; i <= mask; i++) {
+            clients.putLong(i * CLIENT_ENTRY, 0);
+            clients.putInt(i * CLIENT_ENTRY + 8, 0);
+            clearValue(i);
+        }
+        size = 0;
+        sweepCursor = 0;
+        for (Long key : latest.keySet()) {
+            int value = (int) latest.get(key)[0];
+            // a value issued twice can only be kept once
+            if (findValue(value) >= 0 || size >= capacity)
+                continue;
+            int slot = hash(key) & mask;
+            while (clients.getLong(slot * CLIENT_ENTRY) != 0)
+                slot = (slot + 1) & mask;
+            clients.putLong(slot * CLIENT_ENTRY, key);
+            clients.putInt(slot * CLIENT_ENTRY + 8, value);
+            insertValue(value, key, latest.get(key)[1]);
+            size++;
+        }
+    }
+
+    // number of table slots used for the given capacity, load factor of at most 0.5 keeps the probe sequences short
+    static int slotsFor(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        int slots = Integer.highestOneBit(capacity) << 2;
+        if (slots <= 0 || (long) slots * VALUE_ENTRY > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("capacity too large: " + capacity);
+        return slots;
+    }
+
+    // size of the clients / values table buffer in bytes
+    static int clientsBytes(int capacity) {
+        return slotsFor(capacity) * CLIENT_ENTRY;
+    }
+
+    static int valuesBytes(int capacity) {
+        return slotsFor(capacity) * VALUE_ENTRY;
+    }
+
+    // write a cookie record into the first free slot, the check field is written last
+    private void insertValue(int value, long key, long created) {
+        int slot = hash(value) & mask;
+        while (values.getInt(slot * VALUE_ENTRY) != 0)
+            slot = (slot + 1) & mask;
+        values.putLong(slot * VALUE_ENTRY + 4, key);
+        values.putLong(slot * VALUE_ENTRY + 12, created);
+        values.putInt(slot * VALUE_ENTRY, value);
+        values.putInt(slot * VALUE_ENTRY + 20, check(value, key, created));
+    }
+
+    private boolean intact(int vs) {
+        int off = vs * VALUE_ENTRY;
+        return values.getInt(off + 20)
+                == check(values.getInt(off), values.getLong(off + 4), values.getLong(off + 12));
+    }
+
+    private static int check(int value, long key, long created) {
+        return hash(hash(key) ^ ((long) value << 32) ^ created);
+    }
+
+    private void clearValue(int vs) {
+        values.putInt(vs * VALUE_ENTRY, 0);
+        values.putLong(vs * VALUE_ENTRY + 4, 0);
+        values.putLong(vs * VALUE_ENTRY + 12, 0);
+        values.putInt(vs * VALUE_ENTRY + 20, 0);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setValueFilter(IntPredicate accept) {
+        this.valueFilter = accept;
+    }
+
+    // check the next n slots of the values table and remove expired cookies, returns cookies removed
+    private int sweep(long now, int n) {
+        int removed = 0;
+        for (int i = 0; i < n && size > 0; i++) {
+            int vs = sweepCursor;
+            // an entry shifted back into vs is checked again before moving on, torn records are dropped too
+            while (values.getInt(vs * VALUE_ENTRY) != 0
+                    && (now - values.getLong(vs * VALUE_ENTRY + 12) >= lifetime || !intact(vs))) {
+                remove(vs);
+                removed++;
+            }
+            sweepCursor = (sweepCursor + 1) & mask;
+        }
+        return removed;
+    }
+
+    // remove the cookie in values slot vs together with its client entry
+    private void remove(int vs) {
+        int value = values.getInt(vs * VALUE_ENTRY);
+        int cs = findClient(values.getLong(vs * VALUE_ENTRY + 4));
+        if (cs >= 0 && clients.getInt(cs * CLIENT_ENTRY + 8) == value) {
+            deleteClient(cs);
+            size--;
+        }
+        deleteValue(vs);
+    }
+
+    private int findClient(long key) {
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = clients.getLong(slot * CLIENT_ENTRY)) != 0) {
+            if (k == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findValue(int value) {
+        int slot = hash(value) & mask;
+        int v;
+        while ((v = values.getInt(slot * VALUE_ENTRY)) != 0) {
+            if (v == value)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // backward shift deletion: move every following entry that may not stay behind the hole into it
+    private void deleteClient(int hole) {
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = clients.getLong(j * CLIENT_ENTRY);
+            if (k == 0)
+                break;
+            if (stays(hash(k) & mask, hole, j))
+                continue;
+            clients.putLong(hole * CLIENT_ENTRY, k);
+            clients.putInt(hole * CLIENT_ENTRY + 8, clients.getInt(j * CLIENT_ENTRY + 8));
+            hole = j;
+        }
+        clients.putLong(hole * CLIENT_ENTRY, 0);
+        clients.putInt(hole * CLIENT_ENTRY + 8, 0);
+    }
+
+    private void deleteValue(int hole) {
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            int v = values.getInt(j * VALUE_ENTRY);
+            if (v == 0)
+                break;
+            if (stays(hash(v) & mask, hole, j))
+                continue;
+            values.putInt(hole * VALUE_ENTRY, v);
+            values.putLong(hole * VALUE_ENTRY + 4, values.getLong(j * VALUE_ENTRY + 4));
+            values.putLong(hole * VALUE_ENTRY + 12, values.getLong(j * VALUE_ENTRY + 12));
+            values.putInt(hole * VALUE_ENTRY + 20, values.getInt(j * VALUE_ENTRY + 20));
+            hole = j;
+        }
+        clearValue(hole);
+    }
+
+    // true if an entry with the given home slot found at j must stay there (home lies cyclically in (hole, j])
+    private static boolean stays(int home, int hole, int j) {
+        return hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+    }
+
+    // <marker:16> <ipv4:32> <port:16>, 0 if the address is no IPv4 address
+    static long pack(PhyConfiguration client) {
+        if (!(client.getRemoteIPAddress() instanceof Inet4Address))
+            return 0;
+        byte[] a = client.getRemoteIPAddress().getAddress();
+        long ip = ((a[0] & 0xffL) << 24) | ((a[1] & 0xffL) << 16) | ((a[2] & 0xffL) << 8) | (a[3] & 0xffL);
+        return KEY_MARKER | (ip << 16) | (client.getRemotePort() & 0xffff);
+    }
+
+    // 64 bit finalizer of MurmurHash3, spreads neighbouring addresses and ports over the table
+    private static int hash(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+
+    private static ByteBuffer allocate(int bytes, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+    }
+}
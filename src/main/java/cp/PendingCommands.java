@@ -0,0 +1,161 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Commands of a command server waiting for their cookie verification, by correlation id
+ * Every command gets a deadline in a TimingWheel; the shared CPTimer hands commands whose verification was
+ * not answered in time to the timeout handler, so a lost request or response never leaves a client unanswered.
+ * close() stops the timer task.
+ * At most capacity commands are held, add() refuses further ones while the cookie server does not answer.
+ * Correlation ids are random and a result is only accepted from the cookie server the request was sent to,
+ * so a forged verification response has to guess a pending id and come from that address.
+ * The table is split into stripes (a power of two), each with its own lock, ids and timing wheel. A worker thread
+ * adds to its own stripe, the stripe of a result is taken from the low bits of its id, so workers only meet on
+ * the same lock when a result arrives at another worker than the command.
+ */
+final class PendingCommands {
+    interface TimeoutHandler {
+        void timedOut(CPCommandMsg cmd);
+    }
+
+    private static final long TICK = 50;
+    private final TimeoutHandler onTimeout;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final ScheduledFuture<?> ticker;
+
+    PendingCommands(int capacity, long timeout, TimeoutHandler onTimeout) {
+        this(capacity, timeout, 1, onTimeout);
+    }
+
+    PendingCommands(int capacity, long timeout, int stripeCount, TimeoutHandler onTimeout) {
+        if (capacity <= 0 || timeout <= 0)
+            throw new IllegalArgumentException("capacity and timeout must be positive");
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1)
+            throw new IllegalArgumentException("stripe count must be a power of two");
+        this.onTimeout = onTimeout;
+        this.mask = stripeCount - 1;
+        this.stripes = new Stripe[stripeCount];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < stripeCount; i++)
+            this.stripes[i] = new Stripe(i, (capacity + stripeCount - 1) / stripeCount, timeout, now);
+        this.ticker = CPTimer.SCHEDULER.scheduleAtFixedRate(() -> expire(System.currentTimeMillis()),
+                TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    // stop expiring commands, pending ones are no longer answered
+    void close() {
+        ticker.cancel(false);
+    }
+
+    // returns the correlation id of the command verified by cookieServer, -1 if too many commands are pending
+    int add(CPCommandMsg cmd, PhyConfiguration cookieServer, long now) {
+        // own stripe of the calling worker first, the others only when it is full
+        int home = (int) Thread.currentThread().threadId();
+        for (int i = 0; i <= mask; i++) {
+            int id = stripes[(home + i) & mask].add(cmd, cookieServer, now);
+            if (id >= 0)
+                return id;
+        }
+        return -1;
+    }
+
+    /*
+     * the command waiting for this verification result, null if unknown, already timed out or
+     * the result was not sent by the cookie server asked (the command then stays pending)
+     */
+    CPCommandMsg remove(int id, PhyConfiguration from) {
+        return (id < 0) ? null : stripes[id & mask].remove(id, from);
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe s : stripes)
+            size += s.size();
+        return size;
+    }
+
+    /*
+     * remove the commands whose deadline has passed and pass them to the timeout handler
+     * the handler is called without a lock held, it may send messages
+     * returns the number of timed out commands
+     */
+    int expire(long now) {
+        List<CPCommandMsg> expired = new ArrayList<>();
+        for (Stripe s : stripes)
+            s.expire(now, expired);
+        for (CPCommandMsg cmd : expired)
+            onTimeout.timedOut(cmd);
+        return expired.size();
+    }
+
+    private final class Stripe {
+        private final int index;
+        private final int capacity;
+        private final long timeout;
+        private final HashMap<Integer, Entry> byId = new HashMap<>();
+        private final TimingWheel<Entry> deadlines;
+
+        Stripe(int index, int capacity, long timeout, long now) {
+            this.index = index;
+            this.capacity = capacity;
+            this.timeout = timeout;
+            // one revolution covers the timeout, so deadlines are not skipped over
+            this.deadlines = new TimingWheel<>(TICK, (int) (timeout / TICK) + 2, now);
+        }
+
+        synchronized int add(CPCommandMsg cmd, PhyConfiguration cookieServer, long now) {
+            if (byId.size() >= capacity)
+                return -1;
+            int id;
+            do {
+                // low bits select the stripe again in remove()
+                id = ((ThreadLocalRandom.current().nextInt() * (mask + 1)) | index) & Integer.MAX_VALUE;
+            } while (byId.containsKey(id));
+            Entry e = new Entry(id, cmd, cookieServer);
+            byId.put(id, e);
+            deadlines.schedule(e, now + timeout);
+            return id;
+        }
+
+        synchronized CPCommandMsg remove(int id, PhyConfiguration from) {
+            Entry e = byId.get(id);
+            if (e == null || !e.cookieServer.equals(from))
+                return null;
+            byId.remove(id);
+            return e.cmd;
+        }
+
+        synchronized int size() {
+            return byId.size();
+        }
+
+        synchronized void expire(long now, List<CPCommandMsg> expired) {
+            // answered commands are still in the wheel, they are skipped here
+            deadlines.advance(now, e -> {
+                if (byId.remove(e.id, e))
+                    expired.add(e.cmd);
+            });
+        }
+    }
+
+    private static final class Entry {
+        final int id;
+        final CPCommandMsg cmd;
+        final PhyConfiguration cookieServer;
+
+        Entry(int id, CPCommandMsg cmd, PhyConfiguration cookieServer) {
+            this.id = id;
+            this.cmd = cmd;
+            this.cookieServer = cookieServer;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/*
+ * Command server: responses to the recently executed commands by client, cookie and command id
+ * A client sends a command again when the response is lost or late, the copy must not be executed twice.
+ * begin() registers the first copy; a copy arriving while the first one is processed is dropped, a later copy
+ * gets the stored response again. Commands that were not executed (invalid cookie, verification timeout) are
+ * forgotten, a copy is then processed like a new command.
+ * Entries are kept for the retention time. Above capacity the oldest answered entries are dropped early, a late copy
+ * of such a command is executed again; the capacity must cover the command rate times the retention time.
+ * Entries of commands still being processed are never dropped early, they are bounded by the pending commands.
+ * The entries are split into stripes like VerifiedCookieCache, so worker threads do not serialize on one lock.
+ */
+final class RecentResponses {
+    // returned by begin() for a copy of a command that is still being processed
+    static final CPCommandResponseMsg IN_PROGRESS = new CPCommandResponseMsg();
+
+    private final long retention;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    RecentResponses(int capacity, long retention, int stripeCount) {
+        if (capacity <= 0 || retention <= 0 || stripeCount <= 0 || Integer.bitCount(stripeCount) != 1)
+            throw new IllegalArgumentException("capacity and retention must be positive, stripe count a power of two");
+        this.retention = retention;
+        // every stripe holds at least one entry
+        int n = Math.min(stripeCount, Integer.highestOneBit(capacity));
+        this.mask = n - 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            this.stripes[i] = new Stripe((capacity + n - 1) / n);
+    }
+
+    /*
+     * register a received command
+     * returns null for a new command, which the caller processes, IN_PROGRESS for a copy of a command not
+     * answered yet and otherwise a new message with the stored response
+     */
+    CPCommandResponseMsg begin(PhyConfiguration client, long cookie, int id, long now) {
+        Key key = new Key(client, cookie, id);
+        Entry e = stripe(key).begin(key, now, now + retention);
+        if (e == null)
+            return null;
+        if (e.message == null)
+            return IN_PROGRESS;
+        CPCommandResponseMsg res = new CPCommandResponseMsg();
+        res.create(id, e.success, e.message);
+        return res;
+    }
+
+    // the command was executed, copies get this response until the retention time has passed
+    void complete(PhyConfiguration client, long cookie, int id, boolean success, String message, long now) {
+        Key key = new Key(client, cookie, id);
+        stripe(key).complete(key, new Entry(now + retention, success, message));
+    }
+
+    // the command was not executed, a copy is processed again
+    void forget(PhyConfiguration client, long cookie, int id) {
+        Key key = new Key(client, cookie, id);
+        stripe(key).forget(key);
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe s : stripes)
+            size += s.size();
+        return size;
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Stripe {
+        // insertion order -> iteration starts with the entry that expires first
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+        private final int capacity;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Entry begin(Key key, long now, long expiry) {
+            expire(now);
+            Entry e = entries.get(key);
+            if (e == null) {
+                entries.put(key, new Entry(expiry, false, null));
+                evict();
+            }
+            return e;
+        }
+
+        synchronized void complete(Key key, Entry e) {
+            // removed first, so the entry moves to the end of the expiry order
+            entries.remove(key);
+            entries.put(key, e);
+            evict();
+        }
+
+        synchronized void forget(Key key) {
+            entries.remove(key);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        // over capacity -> drop the oldest answered entries, commands still being processed keep theirs
+        private void evict() {
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > capacity && it.hasNext()) {
+                if (it.next().message != null)
+                    it.remove();
+            }
+        }
+
+        private void expire(long now) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext() && it.next().expiry <= now)
+                it.remove();
+        }
+    }
+
+    // message null -> not answered yet
+    private static final class Entry {
+        final long expiry;
+        final boolean success;
+        final String message;
+
+        Entry(long expiry, boolean success, String message) {
+            this.expiry = expiry;
+            this.success = success;
+            this.message = message;
+        }
+    }
+
+    private static final class Key {
+        final PhyConfiguration client;
+        final long cookie;
+        final int id;
+
+        Key(PhyConfiguration client, long cookie, int id) {
+            this.client = client;
+            this.cookie = cookie;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key k))
+                return false;
+            return id == k.id && cookie == k.cookie && client.equals(k.client);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(client, cookie, id);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package cp;
+
+/*
+ * Retransmission timeout of one remote endpoint from measured round trip times (RFC 6298)
+ *   first sample R : SRTT = R, RTTVAR = R / 2
+ *   later samples  : RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R
+ *   RTO = SRTT + 4 RTTVAR, limited to [minRto, maxRto]
+ * Before the first sample the initial RTO is used. Every timeout doubles the RTO (up to maxRto) until the next
+ * sample. Callers only pass samples of requests that were sent once (Karn's rule), a response to a
+ * retransmitted request cannot be matched to one transmission.
+ * Not thread safe, used by the client role only.
+ */
+final class RttEstimator {
+    private final long minRto;
+    private final long maxRto;
+    private double srtt = -1;
+    private double rttvar;
+    private long rto;
+
+    RttEstimator(long initialRto, long minRto, long maxRto) {
+        if (minRto <= 0 || minRto > maxRto)
+            throw new IllegalArgumentException("invalid RTO bounds");
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.rto = Math.min(Math.max(initialRto, minRto), maxRto);
+    }
+
+    // round trip time in ms of a request that was sent exactly once
+    void sample(double rtt) {
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+            srtt = 0.875 * srtt + 0.125 * rtt;
+        }
+        rto = Math.min(Math.max((long) Math.ceil(srtt + 4 * rttvar), minRto), maxRto);
+    }
+
+    // no response within the current RTO
+    void backoff() {
+        rto = Math.min(rto * 2, maxRto);
+    }
+
+    // timeout in ms for the next attempt
+    int rto() {
+        return (int) rto;
+    }
+
+    // smoothed round trip time in ms, -1 before the first sample
+    double srtt() {
+        return srtt;
+    }
+}
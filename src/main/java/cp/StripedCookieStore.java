@@ -0,0 +1,86 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.function.IntPredicate;
+
+/*
+ * Thread safe CookieStore for cookie servers with several receive threads -> no global lock
+ * The cookies are split over a power of two number of stripes, every stripe is a PackedCookieStore with its own lock.
+ *   issue : the stripe is selected by a hash of the client address, so renewals find the previous cookie
+ *   verify: the stripe index is encoded in the low bits of every cookie value, so no stripe has to be searched
+ * Cookie values are generated with ThreadLocalRandom, there is no shared generator.
+ * Each stripe holds capacity / stripes cookies; for small capacities fewer stripes are used, so clients are
+ * not rejected while other stripes still have room.
+ * Clients with other than IPv4 addresses, which the packed stripes cannot hold, are kept in one more MapCookieStore
+ * of the same capacity per stripe; its cookie values carry the tag of the stripe count.
+ */
+public class StripedCookieStore implements CookieStore {
+    // minimum number of cookies per stripe before the store is split further
+    private static final int MIN_STRIPE_CAPACITY = 64;
+    private final PackedCookieStore[] stripes;
+    // stripe of the clients with other than IPv4 addresses
+    private final MapCookieStore others;
+    private final int mask;
+    // cookie value bits that select the store, one more than the packed stripes need
+    private final int tagMask;
+    private volatile IntPredicate valueFilter;
+
+    public StripedCookieStore(int capacity, long lifetime, int stripeCount, boolean direct) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        int n = Integer.highestOneBit(Math.max(1, Math.min(stripeCount, capacity / MIN_STRIPE_CAPACITY)));
+        int bits = Integer.numberOfTrailingZeros(n) + 1;
+        this.stripes = new PackedCookieStore[n];
+        this.mask = n - 1;
+        this.tagMask = 2 * n - 1;
+        for (int i = 0; i < n; i++)
+            stripes[i] = new PackedCookieStore((capacity + n - 1) / n, lifetime, direct, bits, i);
+        this.others = new MapCookieStore((capacity + n - 1) / n, lifetime);
+        this.others.setValueFilter(v -> (v & tagMask) == n && (valueFilter == null || valueFilter.test(v)));
+    }
+
+    @Override
+    public int issue(PhyConfiguration client, long now) {
+        if (PackedCookieStore.pack(client) == 0)
+            return others.issue(client, now);
+        int h = client.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask].issue(client, now);
+    }
+
+    @Override
+    public long remainingLifetime(int cookie, long now) {
+        int tag = cookie & tagMask;
+        return (tag < stripes.length) ? stripes[tag].remainingLifetime(cookie, now) : others.remainingLifetime(cookie, now);
+    }
+
+    // expire every stripe, one lock at a time
+    @Override
+    public int expire(long now) {
+        int removed = 0;
+        for (PackedCookieStore s : stripes)
+            removed += s.expire(now);
+        return removed + others.expire(now);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (PackedCookieStore s : stripes)
+            size += s.size();
+        return size + others.size();
+    }
+
+    @Override
+    public void setValueFilter(IntPredicate accept) {
+        for (PackedCookieStore s : stripes)
+            s.setValueFilter(accept);
+        // the map stripe combines it with its tag filter
+        this.valueFilter = accept;
+    }
+
+    // number of stripes in use
+    int stripeCount() {
+        return stripes.length;
+    }
+}
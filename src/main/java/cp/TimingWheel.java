@@ -0,0 +1,89 @@
+package cp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Hashed timing wheel -> schedules items for expiry in O(1) and hands them back once their deadline has passed
+ * Time is split into ticks of tickMillis, a deadline is rounded up to its tick and stored in slot (tick % slots).
+ * Deadlines further away than one revolution share a slot with nearer ones and are simply skipped until their tick.
+ * Cancelling is left to the caller: an item that is no longer relevant is ignored when it expires.
+ * Not thread safe, callers synchronize externally.
+ */
+final class TimingWheel<T> {
+    private final long tickMillis;
+    private final List<ArrayDeque<Timeout<T>>> slots;
+    private final int mask;
+    private long currentTick; // next tick that has not been processed yet
+    private int size;
+
+    /*
+     * slotCount is rounded up to a power of two
+     */
+    TimingWheel(long tickMillis, int slotCount, long now) {
+        if (tickMillis <= 0 || slotCount <= 0)
+            throw new IllegalArgumentException("tick and slot count must be positive");
+        int n = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = n - 1;
+        this.slots = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            slots.add(new ArrayDeque<>());
+        this.currentTick = now / tickMillis;
+    }
+
+    // schedule item to expire once deadline (absolute time in ms) has passed
+    void schedule(T item, long deadline) {
+        // round up so an item never expires before its deadline
+        long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick);
+        slots.get((int) (tick & mask)).add(new Timeout<>(item, tick));
+        size++;
+    }
+
+    /*
+     * process all ticks up to now and pass every expired item to the consumer
+     * returns the number of expired items
+     */
+    int advance(long now, Consumer<? super T> expired) {
+        long target = now / tickMillis;
+        if (target < currentTick)
+            return 0;
+        // after one revolution every slot has been visited, so a long idle period costs at most one sweep
+        long steps = Math.min(target - currentTick + 1, slots.size());
+        int count = 0;
+        for (long i = 0; i < steps; i++) {
+            ArrayDeque<Timeout<T>> slot = slots.get((int) ((currentTick + i) & mask));
+            int n = slot.size();
+            // items of later revolutions are put back at the tail
+            for (int j = 0; j < n; j++) {
+                Timeout<T> t = slot.poll();
+                if (t.tick <= target) {
+                    size--;
+                    count++;
+                    expired.accept(t.item);
+                } else {
+                    slot.add(t);
+                }
+            }
+        }
+        currentTick = target + 1;
+        return count;
+    }
+
+    // number of scheduled items (including ones the caller no longer cares about)
+    int size() {
+        return size;
+    }
+
+    private static final class Timeout<T> {
+        final T item;
+        final long tick;
+
+        Timeout(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cp;
+
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Collects the cookie verifications of a command server per cookie server and sends them as one
+ * CPCookieBatchVerificationRequestMsg, as soon as a batch is full or maxDelay ms after its first cookie
+ * Batches that are due are sent by the shared CPTimer, close() sends the open batches right away.
+ */
+final class VerificationBatcher {
+    interface Sender {
+        void send(PhyConfiguration to, CPCookieBatchVerificationRequestMsg batch) throws IOException, IWProtocolException;
+    }
+
+    private final int maxSize;
+    private final long maxDelay;
+    private final Sender sender;
+    private final HashMap<PhyConfiguration, Batch> open = new HashMap<>();
+
+    VerificationBatcher(int maxSize, long maxDelay, Sender sender) {
+        if (maxSize < 1 || maxSize > CPCookieBatchVerificationRequestMsg.MAX_PAIRS)
+            throw new IllegalArgumentException("Batch size must be in [1, "
+                    + CPCookieBatchVerificationRequestMsg.MAX_PAIRS + "]");
+        this.maxSize = maxSize;
+        this.maxDelay = Math.max(0, maxDelay);
+        this.sender = sender;
+    }
+
+    // queue the cookie for verification by the cookie server to, sends the batch if it is full
+    void add(PhyConfiguration to, int correlationId, long cookie) throws IOException, IWProtocolException {
+        Batch full = null;
+        synchronized (open) {
+            Batch b = open.computeIfAbsent(to, k -> new Batch(maxSize));
+            b.ids[b.count] = correlationId;
+            b.cookies[b.count++] = cookie;
+            if (b.count >= maxSize) {
+                open.remove(to);
+                if (b.deadline != null)
+                    b.deadline.cancel(false);
+                full = b;
+            } else if (b.count == 1) {
+                b.deadline = CPTimer.SCHEDULER.schedule(() -> flush(to, b), maxDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null)
+            send(to, full);
+    }
+
+    // latency threshold reached -> send the batch unless it was already sent because it was full
+    private void flush(PhyConfiguration to, Batch b) {
+        synchronized (open) {
+            if (open.get(to) != b)
+                return;
+            open.remove(to);
+        }
+        try {
+            send(to, b);
+        } catch (IOException | IWProtocolException e) {
+            System.out.println("Failed to send verification batch: " + e.getMessage());
+        }
+    }
+
+    // cancel the deadlines and send all open batches
+    void close() {
+        List<Map.Entry<PhyConfiguration, Batch>> due;
+        synchronized (open) {
+            due = new ArrayList<>(open.entrySet());
+            open.clear();
+        }
+        for (Map.Entry<PhyConfiguration, Batch> e : due) {
+            if (e.getValue().deadline != null)
+                e.getValue().deadline.cancel(false);
+            try {
+                send(e.getKey(), e.getValue());
+            } catch (IOException | IWProtocolException ex) {
+                System.out.println("Failed to send verification batch: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void send(PhyConfiguration to, Batch b) throws IOException, IWProtocolException {
+        CPCookieBatchVerificationRequestMsg msg = new CPCookieBatchVerificationRequestMsg();
+        msg.create(b.ids, b.cookies, b.count);
+        sender.send(to, msg);
+    }
+
+    private static final class Batch {
+        final int[] ids;
+        final long[] cookies;
+        int count;
+        ScheduledFuture<?> deadline;
+
+        Batch(int size) {
+            this.ids = new int[size];
+            this.cookies = new long[size];
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Command server cache of positively verified cookies -> repeated commands with the same cookie from the same
+ * client are accepted without asking the cookie server again
+ * Entries expire at the end of the remaining cookie lifetime reported by the cookie server, the least recently
+ * used entry is dropped when the cache is full.
+ * A cookie invalidated early on the cookie server (renewal, eviction) stays accepted here until that time.
+ * The entries are split into stripes (a power of two) selected by a hash of client and cookie, each with its own
+ * lock and LRU order, so worker threads do not serialize on one lock.
+ */
+final class VerifiedCookieCache {
+    private final Stripe[] stripes;
+    private final int mask;
+
+    VerifiedCookieCache(int capacity) {
+        this(capacity, 1);
+    }
+
+    VerifiedCookieCache(int capacity, int stripeCount) {
+        if (capacity <= 0 || stripeCount <= 0 || Integer.bitCount(stripeCount) != 1)
+            throw new IllegalArgumentException("capacity must be positive, stripe count a power of two");
+        // every stripe holds at least one entry
+        int n = Math.min(stripeCount, Integer.highestOneBit(capacity));
+        this.mask = n - 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            this.stripes[i] = new Stripe((capacity + n - 1) / n);
+    }
+
+    // true if the cookie was verified for this client and its lifetime has not passed
+    boolean contains(PhyConfiguration client, long cookie, long now) {
+        Key key = new Key(client, cookie);
+        return stripe(key).contains(key, now);
+    }
+
+    // remember a positive verification until expiry (absolute time in ms)
+    void put(PhyConfiguration client, long cookie, long expiry) {
+        Key key = new Key(client, cookie);
+        stripe(key).put(key, expiry);
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe s : stripes)
+            size += s.size();
+        return size;
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Stripe {
+        private final LinkedHashMap<Key, Long> entries;
+
+        Stripe(int capacity) {
+            // access order -> iteration starts with the least recently used entry
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized boolean contains(Key key, long now) {
+            Long expiry = entries.get(key);
+            if (expiry == null)
+                return false;
+            if (now < expiry)
+                return true;
+            entries.remove(key);
+            return false;
+        }
+
+        synchronized void put(Key key, long expiry) {
+            entries.put(key, expiry);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static final class Key {
+        final PhyConfiguration client;
+        final long cookie;
+
+        Key(PhyConfiguration client, long cookie) {
+            this.client = client;
+            this.cookie = cookie;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key k))
+                return false;
+            return cookie == k.cookie && client.equals(k.client);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(client, cookie);
+        }
+    }
+}
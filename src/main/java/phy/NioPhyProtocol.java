@@ -0,0 +1,205 @@
+package phy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+import core.*;
+import exceptions.*;
+
+/*
+ * PhyProtocol implementation on top of a non-blocking DatagramChannel
+ * Every receiving thread receives into its own slab: datagrams are placed one after another and parsed in
+ * place, the messages keep referencing their slice. A slab is never overwritten, it is replaced once it has no
+ * room for another datagram, so no receive buffer or DatagramPacket is allocated per datagram.
+ * In direct mode the datagram is received into a reused off-heap buffer and copied into the slab.
+ */
+public class NioPhyProtocol extends PhyProtocol {
+	public static final boolean REUSE_PORT_SUPPORTED = reusePortSupported();
+	// datagrams per slab (of maximum size, usually many more fit)
+	private static final int SLAB_SIZE = 64 * MAX_DATAGRAM_SIZE;
+	protected DatagramChannel channel;
+	private Selector selector;
+	private final ThreadLocal<ByteBuffer> slab = ThreadLocal.withInitial(() -> ByteBuffer.allocate(SLAB_SIZE));
+	// direct mode only, null otherwise
+	private final ThreadLocal<ByteBuffer> directBuffer;
+
+	/*
+	 * Create a new NioPhyProtocol instance bound to the UDP port provided (heap buffers)
+	 */
+	public NioPhyProtocol(int port) {
+		this(port, false);
+	}
+
+	/*
+	 * Create a new NioPhyProtocol instance bound to the UDP port provided
+	 * direct -> receive into off-heap buffers (saves one copy inside the JDK)
+	 */
+	public NioPhyProtocol(int port, boolean direct) {
+		this(port, direct, false);
+	}
+
+	/*
+	 * reusePort -> bind with SO_REUSEPORT, several instances can share the port and the
+	 * kernel spreads incoming datagrams across them (see REUSE_PORT_SUPPORTED)
+	 */
+	public NioPhyProtocol(int port, boolean direct, boolean reusePort) {
+		super();
+		this.directBuffer = direct ? ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE)) : null;
+		try {
+			this.channel = DatagramChannel.open();
+			if (reusePort)
+				this.channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			this.channel.bind(new InetSocketAddress(port));
+			this.channel.configureBlocking(false);
+			this.selector = Selector.open();
+			this.channel.register(this.selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			System.err.println("Error: Could not open port " + port);
+			System.exit(1); // Ends execution if port is in use
+		}
+	}
+
+	// write one datagram (frame position to limit) to the channel
+	@Override
+	protected void transmit(ByteBuffer frame, PhyConfiguration to) throws IOException {
+		channel.send(frame, to.getSocketAddress());
+	}
+
+	/*
+	 * receive incoming message from channel and parse -> call blocks until message is received
+	 */
+	@Override
+	public Msg receive() throws IOException {
+		return receive(0);
+	}
+
+	/*
+	 * receive with timeout (0 = wait forever) -> the deadline is handled by the selector,
+	 * no socket option has to be changed per call
+	 */
+	@Override
+	public Msg receive(int timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			try {
+				PhyMsg in = receiveNow();
+				if (in != null)
+					return in;
+			} catch (IllegalMsgException e) {
+				// same contract as PhyProtocol -> corrupt datagrams are returned as null
+				return null;
+			}
+			long remaining = 0;
+			if (timeout > 0) {
+				remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new SocketTimeoutException("Receive timed out");
+			}
+			awaitReadable(remaining);
+		}
+	}
+
+	/*
+	 * receive up to max messages -> blocks until the first datagram arrives and then drains
+	 * everything already queued in the kernel buffer without blocking again
+	 * corrupt datagrams are dropped from the batch
+	 */
+	@Override
+	public List<Msg> receiveBatch(int max) throws IOException {
+		checkBatchSize(max);
+		List<Msg> batch = new ArrayList<>(Math.min(max, 64));
+		while (batch.isEmpty()) {
+			if (drain(batch, max) == 0)
+				awaitReadable(0);
+		}
+		return batch;
+	}
+
+	/*
+	 * non-blocking variant of receiveBatch -> returns the messages that are already queued (possibly none)
+	 */
+	public List<Msg> poll(int max) throws IOException {
+		checkBatchSize(max);
+		List<Msg> batch = new ArrayList<>();
+		drain(batch, max);
+		return batch;
+	}
+
+	// register the channel for read readiness with an external selector (see PhyReactor)
+	SelectionKey register(Selector sel, Object attachment) throws IOException {
+		return channel.register(sel, SelectionKey.OP_READ, attachment);
+	}
+
+	// read datagrams until the channel is empty or max messages were collected, returns datagrams read
+	protected int drain(List<Msg> batch, int max) throws IOException {
+		int count = 0;
+		while (batch.size() < max) {
+			try {
+				PhyMsg in = receiveNow();
+				if (in == null)
+					break;
+				batch.add(in);
+			} catch (IllegalMsgException ignored) {
+				// corrupt datagram -> drop it and keep draining
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private static boolean reusePortSupported() {
+		try (DatagramChannel ch = DatagramChannel.open()) {
+			return ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * receive one datagram without blocking into the slab of the calling thread and parse it in place
+	 * returns null if no datagram is queued, a corrupt datagram is consumed and raises IllegalMsgException
+	 */
+	protected PhyMsg receiveNow() throws IllegalMsgException, IOException {
+		ByteBuffer s = slab.get();
+		if (s.capacity() - s.position() < MAX_DATAGRAM_SIZE) {
+			// earlier messages still reference the full slab -> continue in a new one
+			s = ByteBuffer.allocate(SLAB_SIZE);
+			slab.set(s);
+		}
+		int start = s.position();
+		InetSocketAddress sender;
+		if (directBuffer == null) {
+			s.limit(start + MAX_DATAGRAM_SIZE);
+			sender = (InetSocketAddress) channel.receive(s);
+		} else {
+			ByteBuffer d = directBuffer.get();
+			d.clear();
+			sender = (InetSocketAddress) channel.receive(d);
+			if (sender != null) {
+				d.flip();
+				s.limit(s.capacity());
+				s.put(d);
+			}
+		}
+		if (sender == null)
+			return null;
+		return parseMsg(s.array(), start, s.position() - start, sender.getAddress(), sender.getPort());
+	}
+
+	// block until the channel becomes readable or the timeout expires (0 = no timeout)
+	private void awaitReadable(long timeout) throws IOException {
+		synchronized (selector) {
+			selector.select(timeout);
+			selector.selectedKeys().clear();
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package phy;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import core.Msg;
+
+/*
+ * Shared receiver thread of a PhyProtocol instance
+ * The thread blocks on the socket without any timeout and hands every message to the
+ * oldest outstanding future; deadlines are enforced by one timer thread shared by all instances,
+ * so waiting callers neither block a thread nor change socket options. The deadline of a future
+ * completed earlier is cancelled and removed from the timer right away.
+ * Messages that arrive while nobody waits are kept in a small inbox (oldest dropped first) for at most
+ * INBOX_MAX_AGE ms, e.g. between two polls; older ones are dropped instead of answering a later, unrelated wait
+ */
+class PhyAsyncReceiver implements Runnable {
+	private static final int INBOX_SIZE = 1024;
+	static final long INBOX_MAX_AGE = 500;
+	static final ScheduledExecutorService TIMER = createTimer();
+	private final PhyProtocol phy;
+	private final LinkedHashSet<CompletableFuture<Msg>> waiters = new LinkedHashSet<>();
+	private final ArrayDeque<Received> inbox = new ArrayDeque<>();
+	private IOException failure;
+
+	PhyAsyncReceiver(PhyProtocol phy) {
+		this.phy = phy;
+	}
+
+	/*
+	 * future completed with the next message or with a SocketTimeoutException after timeout ms (0 = no deadline)
+	 */
+	CompletableFuture<Msg> receive(int timeout) {
+		CompletableFuture<Msg> f = new CompletableFuture<>();
+		synchronized (this) {
+			dropStale(System.nanoTime());
+			if (!inbox.isEmpty()) {
+				f.complete(inbox.poll().msg);
+				return f;
+			}
+			if (failure != null) {
+				f.completeExceptionally(failure);
+				return f;
+			}
+			waiters.add(f);
+		}
+		ScheduledFuture<?> deadline = (timeout > 0)
+				? TIMER.schedule(() -> f.completeExceptionally(new SocketTimeoutException("Receive timed out")),
+						timeout, TimeUnit.MILLISECONDS)
+				: null;
+		// forget the future and its deadline as soon as it is done (message, deadline or cancellation)
+		f.whenComplete((m, e) -> {
+			if (deadline != null)
+				deadline.cancel(false);
+			synchronized (this) {
+				waiters.remove(f);
+			}
+		});
+		return f;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Msg in;
+			try {
+				in = phy.receive();
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			if (in != null)
+				deliver(in);
+		}
+	}
+
+	private void deliver(Msg in) {
+		CompletableFuture<Msg> f;
+		do {
+			synchronized (this) {
+				var it = waiters.iterator();
+				if (!it.hasNext()) {
+					long now = System.nanoTime();
+					dropStale(now);
+					if (inbox.size() == INBOX_SIZE)
+						inbox.poll();
+					inbox.add(new Received(in, now));
+					return;
+				}
+				f = it.next();
+				it.remove();
+			}
+			// complete outside the lock, dependent stages run on this thread
+		} while (!f.complete(in));
+	}
+
+	// drop the messages that waited longer than INBOX_MAX_AGE, called with the lock held
+	private void dropStale(long now) {
+		while (!inbox.isEmpty() && now - inbox.peek().at > TimeUnit.MILLISECONDS.toNanos(INBOX_MAX_AGE))
+			inbox.poll();
+	}
+
+	private void fail(IOException e) {
+		CompletableFuture<?>[] pending;
+		synchronized (this) {
+			failure = e;
+			pending = waiters.toArray(new CompletableFuture<?>[0]);
+			waiters.clear();
+		}
+		for (CompletableFuture<?> f : pending)
+			f.completeExceptionally(e);
+	}
+
+	private static ScheduledExecutorService createTimer() {
+		ScheduledThreadPoolExecutor timer = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, r -> {
+			Thread t = new Thread(r, "phy-timer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
+	// message in the inbox with its arrival time (System.nanoTime)
+	private static final class Received {
+		final Msg msg;
+		final long at;
+
+		Received(Msg msg, long at) {
+			this.msg = msg;
+			this.at = at;
+		}
+	}
+}
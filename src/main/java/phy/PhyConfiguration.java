@@ -1,6 +1,7 @@
 package phy;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Objects;
 
@@ -12,6 +13,7 @@ public class PhyConfiguration extends Configuration{
 	protected InetAddress remoteIPAddress;
 	protected Protocol.proto_id pid;
 	protected boolean isClient;
+	private InetSocketAddress socketAddress;
 	
 	public PhyConfiguration(InetAddress rip, int rp, Protocol.proto_id pid) throws UnknownHostException {
 		super(null);
@@ -30,6 +32,13 @@ public class PhyConfiguration extends Configuration{
 	}
 	public Protocol.proto_id getPid() {return this.pid;}
 
+	// remote address as socket address, created once per configuration
+	InetSocketAddress getSocketAddress() {
+		if (this.socketAddress == null)
+			this.socketAddress = new InetSocketAddress(this.remoteIPAddress, this.remotePort);
+		return this.socketAddress;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
@@ -1,5 +1,8 @@
 package phy;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import core.Msg;
 import core.Protocol;
 import exceptions.IllegalMsgException;
@@ -8,10 +11,26 @@ import exceptions.IllegalMsgException;
  * The only message class for the phy layer
  * This layer prepends a "phy" header when sending a message
  * This layer removes the "phy" header when receiving a message
+ * Binary frames replace the text header by a single byte (BINARY_FLAG | protocol id)
  */
 public class PhyMsg extends Msg {
 	protected static final String PHY_HEADER = "phy";
+	private static final byte[] PHY_HEADER_BYTES = PHY_HEADER.getBytes();
+	// first byte of a binary frame -> never a valid first character of a text frame
+	protected static final int BINARY_FLAG = 0x80;
+	// encoded text headers per protocol id, built once
+	private static final byte[][] TEXT_HEADERS = new byte[Protocol.proto_id.values().length][];
+	static {
+		for (Protocol.proto_id p : Protocol.proto_id.values())
+			TEXT_HEADERS[p.ordinal()] = (PHY_HEADER + " " + toId(p) + " ").getBytes();
+	}
 	protected Protocol.proto_id pid;
+	// received datagram: frame = trimmed message, payload = message without the phy header
+	private byte[] raw;
+	private int frameOffset;
+	private int frameLength;
+	private int payloadOffset;
+	private int payloadLength;
 
 	protected PhyMsg() {}
 	protected PhyMsg(PhyConfiguration config) {
@@ -27,16 +46,40 @@ public class PhyMsg extends Msg {
 	@Override
 	protected void create(String data) {
 		this.data = data;
-		int id;
-		PhyConfiguration conf = (PhyConfiguration) this.config;
-		id = switch (conf.getPid()) {
+		int id = toId(((PhyConfiguration) this.config).getPid());
+		data = PHY_HEADER + " " + id + " " +data;
+		this.dataBytes = data.getBytes();
+	}
+
+	/*
+	 * Write the phy header in front of an upper layer message that is encoded in place:
+	 * "phy <id> " for text messages, a single byte BINARY_FLAG | id for binary messages
+	 */
+	static void writeHeader(ByteBuffer out, Protocol.proto_id pid, boolean binary) {
+		if (binary)
+			out.put((byte) (BINARY_FLAG | toId(pid)));
+		else
+			out.put(TEXT_HEADERS[pid.ordinal()]);
+	}
+
+	// numeric protocol ids used on the wire
+	static int toId(Protocol.proto_id pid) {
+		return switch (pid) {
 			case PHY -> 1;
 			case APP -> 3;
 			case SLP -> 5;
 			case CP -> 7;
 		};
-		data = PHY_HEADER + " " + id + " " +data;
-		this.dataBytes = data.getBytes();
+	}
+
+	static Protocol.proto_id toPid(int id) throws IllegalMsgException {
+		return switch (id) {
+			case 1 -> Protocol.proto_id.PHY;
+			case 3 -> Protocol.proto_id.APP;
+			case 5 -> Protocol.proto_id.SLP;
+			case 7 -> Protocol.proto_id.CP;
+			default -> throw new IllegalMsgException();
+		};
 	}
 	
 	/*
@@ -46,37 +89,113 @@ public class PhyMsg extends Msg {
 	 */
 	@Override
 	protected Msg parse(String sentence) throws IllegalMsgException {
-		this.dataBytes = sentence.getBytes();
-		if (!sentence.startsWith(PHY_HEADER)) {
-			System.out.println("Illegal data header: " + sentence);
+		byte[] bytes = sentence.getBytes();
+		return parse(bytes, 0, bytes.length);
+	}
+
+	/*
+	 * Parse the datagram contained in buf[offset, offset+length) without decoding it
+	 * The "phy <pid>" header is read from the bytes, the payload is kept as a slice of buf
+	 * and only turned into a String when getData() is called
+	 */
+	protected Msg parse(byte[] buf, int offset, int length) throws IllegalMsgException {
+		int pos = offset;
+		int end = offset + length;
+		this.raw = buf;
+		this.dataBytes = null;
+		this.data = null;
+		// binary frames carry no text header -> the first byte has the high bit set
+		this.binary = length > 0 && (buf[offset] & BINARY_FLAG) != 0;
+		if (this.binary) {
+			pid = toPid(buf[offset] & ~BINARY_FLAG & 0xFF);
+			this.frameOffset = offset;
+			this.frameLength = length;
+			this.payloadOffset = offset + 1;
+			this.payloadLength = length - 1;
+			return this;
+		}
+		// ignore leading and trailing white space (and padding) like String.trim()
+		while (pos < end && buf[pos] <= ' ') pos++;
+		while (end > pos && buf[end - 1] <= ' ') end--;
+		this.frameOffset = pos;
+		this.frameLength = end - pos;
+
+		if (!startsWith(buf, pos, end, PHY_HEADER_BYTES)) {
+			System.out.println("Illegal data header: " + new String(buf, pos, end - pos));
 			throw new IllegalMsgException();
 		}
-		String[] parts = sentence.split("\\s+", 3);
-		PhyMsg pdu;
-		// Parse the protocol id
-		int id;
-		try {
-			id = Integer.parseInt(parts[1]);
-		} catch (NumberFormatException e) {
+		pos += PHY_HEADER_BYTES.length;
+		if (pos == end || buf[pos] > ' ')
 			throw new IllegalMsgException();
+		while (pos < end && buf[pos] <= ' ') pos++;
+
+		// Parse the protocol id
+		int id = 0;
+		int digits = 0;
+		for (; pos < end && buf[pos] > ' '; pos++, digits++) {
+			if (buf[pos] < '0' || buf[pos] > '9' || digits > 9)
+				throw new IllegalMsgException();
+			id = id * 10 + (buf[pos] - '0');
 		}
+		if (digits == 0)
+			throw new IllegalMsgException();
 		//Check protocol id
-		switch (id) {
-			case 1 -> pid = Protocol.proto_id.PHY;
-			case 3 -> pid = Protocol.proto_id.APP;
-			case 5 -> pid = Protocol.proto_id.SLP;
-			case 7 -> pid = Protocol.proto_id.CP;
-			default -> throw new IllegalMsgException();
-		}
+		pid = toPid(id);
+		// the payload starts after the white space following the protocol id
+		while (pos < end && buf[pos] <= ' ') pos++;
+		if (pos == end)
+			throw new IllegalMsgException();
+		this.payloadOffset = pos;
+		this.payloadLength = end - pos;
+
 		// If the second token is "1", call the PhyPingMsg parser
-		if(pid == Protocol.proto_id.PHY && parts[2].startsWith(PhyPingMsg.PHY_PING_HEADER)) {
-			pdu = new PhyPingMsg((PhyConfiguration) this.config);
-			pdu.parse(parts[2]);
-		} else {
-			this.data = parts[2];
-			pdu = this;
+		if (pid == Protocol.proto_id.PHY && startsWith(buf, pos, end, PhyPingMsg.PHY_PING_HEADER_BYTES)) {
+			PhyMsg pdu = new PhyPingMsg((PhyConfiguration) this.config);
+			pdu.parse(getData());
+			return pdu;
 		}
-		return pdu;
+		return this;
 	}
-	
+
+	/*
+	 * Payload of a received message as a read-only view on the received bytes (no copy)
+	 */
+	public ByteBuffer getPayload() {
+		if (raw == null)
+			return ByteBuffer.wrap(getData().getBytes()).asReadOnlyBuffer();
+		return ByteBuffer.wrap(raw, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
+	}
+
+	// the String is only materialized when an upper layer asks for it
+	@Override
+	public String getData() {
+		if (this.data == null && this.raw != null)
+			this.data = new String(raw, payloadOffset, payloadLength);
+		return this.data;
+	}
+
+	@Override
+	public byte[] getDataBytes() {
+		if (this.dataBytes == null && this.raw != null)
+			this.dataBytes = Arrays.copyOfRange(raw, frameOffset, frameOffset + frameLength);
+		return this.dataBytes;
+	}
+
+	@Override
+	public int getLength() {
+		if (this.dataBytes == null && this.raw != null)
+			return this.frameLength;
+		return super.getLength();
+	}
+
+	private static boolean startsWith(byte[] buf, int pos, int end, byte[] prefix) {
+		if (end - pos < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (buf[pos + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
 }
@@ -5,6 +5,7 @@ import exceptions.IllegalMsgException;
 
 public class PhyPingMsg extends PhyMsg {
 	protected static final String PHY_PING_HEADER = "ping ";
+	static final byte[] PHY_PING_HEADER_BYTES = PHY_PING_HEADER.getBytes();
 	private int count;
 
 	protected PhyPingMsg(PhyConfiguration config) {
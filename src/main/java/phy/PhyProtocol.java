@@ -3,14 +3,35 @@ package phy;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import core.*;
 import exceptions.*;
 
 public class PhyProtocol extends Protocol {
 	protected DatagramSocket socket;
+	private volatile PhyAsyncReceiver asyncReceiver;
+	// largest datagram this layer sends or receives
+	protected static final int MAX_DATAGRAM_SIZE = 1024;
+	// messages queued by threads that opened a send batch
+	private final ThreadLocal<PhySendQueue> sendQueue = ThreadLocal.withInitial(PhySendQueue::new);
+	// buffer every send encodes into, one per thread
+	private final ThreadLocal<ByteBuffer> encodeBuffer =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_DATAGRAM_SIZE));
+	private final ThreadLocal<DatagramPacket> pooledPacket =
+			ThreadLocal.withInitial(() -> new DatagramPacket(new byte[0], 0));
+
+	/*
+	 * Constructor for subclasses that bring their own transport
+	 */
+	protected PhyProtocol() {}
 
 	/*
 	 * Create a new PhyProtocol instance connected to UDP port provided
@@ -37,13 +58,81 @@ public class PhyProtocol extends Protocol {
 		this.send(m);
 	}
 
+	/*
+	 * Send an upper layer message without wrapping it into a PhyMsg:
+	 * the phy header and the message are encoded into the pooled buffer of the calling thread
+	 * (text or binary header, depending on the message format). Text messages copy the bytes
+	 * built by create(), binary messages write their fields directly.
+	 * IOException if the datagram would exceed MAX_DATAGRAM_SIZE
+	 */
+	public void send(Msg payload, Configuration config) throws IOException {
+		PhyConfiguration conf = (PhyConfiguration) config;
+		ByteBuffer buf = encodeBuffer.get();
+		buf.clear();
+		try {
+			PhyMsg.writeHeader(buf, conf.getPid(), payload.isBinary());
+			payload.encode(buf);
+		} catch (BufferOverflowException e) {
+			throw new IOException("Message exceeds the maximum datagram size of " + MAX_DATAGRAM_SIZE + " bytes");
+		}
+		buf.flip();
+		send(buf, conf);
+	}
+
+	/*
+	 * Send a message -> queued instead if the calling thread opened a batch (see beginBatch)
+	 */
 	public void send(PhyMsg m) throws IOException {
-		// Create UDP packet
-		DatagramPacket sendPacket = new DatagramPacket(m.getDataBytes(), m.getLength(),
-				((PhyConfiguration) m.getConfiguration()).remoteIPAddress,
-				((PhyConfiguration) m.getConfiguration()).remotePort);
+		send(ByteBuffer.wrap(m.getDataBytes(), 0, m.getLength()), (PhyConfiguration) m.getConfiguration());
+	}
+
+	private void send(ByteBuffer frame, PhyConfiguration to) throws IOException {
+		if (frame.remaining() > MAX_DATAGRAM_SIZE)
+			throw new IOException("Message exceeds the maximum datagram size of " + MAX_DATAGRAM_SIZE + " bytes");
+		PhySendQueue queue = sendQueue.get();
+		if (queue.isOpen())
+			queue.add(frame, to);
+		else
+			transmit(frame, to);
+	}
+
+	/*
+	 * Queue all messages sent by the calling thread until endBatch() is called,
+	 * e.g. to write the responses of one receive batch together
+	 */
+	public void beginBatch() {
+		sendQueue.get().open();
+	}
+
+	/*
+	 * Send the messages queued so far by the calling thread, the batch stays open
+	 */
+	public void flush() throws IOException {
+		PhySendQueue queue = sendQueue.get();
+		if (!queue.isEmpty())
+			queue.flush(this);
+	}
+
+	/*
+	 * Send the messages queued since beginBatch() and stop queuing
+	 */
+	public void endBatch() throws IOException {
+		PhySendQueue queue = sendQueue.get();
+		queue.close();
+		if (!queue.isEmpty())
+			queue.flush(this);
+	}
+
+	// write one datagram (frame position to limit) to the socket
+	protected void transmit(ByteBuffer frame, PhyConfiguration to) throws IOException {
+		// reuse the UDP packet of this thread
+		DatagramPacket sendPacket = pooledPacket.get();
+		sendPacket.setData(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+		sendPacket.setAddress(to.remoteIPAddress);
+		sendPacket.setPort(to.remotePort);
 		// send UDP packet
 		socket.send(sendPacket);
+		frame.position(frame.limit());
 	}
 
 	/*
@@ -73,19 +162,46 @@ public class PhyProtocol extends Protocol {
 
     // extracted method for cleaner implementation
     private static PhyMsg parseMsg(DatagramPacket receivePacket) throws IllegalMsgException, UnknownHostException {
+        return parseMsg(receivePacket.getData(), receivePacket.getOffset(), receivePacket.getLength(),
+                receivePacket.getAddress(), receivePacket.getPort());
+    }
+
+    /*
+     * parse the datagram contained in data[offset, offset+length) -> shared by all transports
+     */
+    protected static PhyMsg parseMsg(byte[] data, int offset, int length, InetAddress address, int port)
+            throws IllegalMsgException, UnknownHostException {
         PhyMsg in = new PhyMsg();
-        // get data from packet data
-        String sentence = new String(receivePacket.getData()).trim();
         // 'try-catch' removed, parse method handles the exceptions
-        // parse data to check if message is compliant with protocol specification
-        in = (PhyMsg) in.parse(sentence);
-        
+        // parse the header straight from the received bytes, the payload stays a slice of data
+        in = (PhyMsg) in.parse(data, offset, length);
+
         // create a config object from packet meta-data
-        PhyConfiguration config = new PhyConfiguration(receivePacket.getAddress(), receivePacket.getPort(), in.getPid());
+        PhyConfiguration config = new PhyConfiguration(address, port, in.getPid());
         in.setConfiguration(config);
         return in;
     }
 
+    /*
+     * receive up to max (>= 1) messages -> blocks until the first message is received,
+     * a plain DatagramSocket cannot be polled, so this transport returns one message per call
+     * (NioPhyProtocol drains all queued datagrams)
+     * corrupt datagrams are dropped from the batch
+     */
+    public List<Msg> receiveBatch(int max) throws IOException {
+        checkBatchSize(max);
+        List<Msg> batch = new ArrayList<>(1);
+        Msg in = receive();
+        if (in != null)
+            batch.add(in);
+        return batch;
+    }
+
+    protected static void checkBatchSize(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("batch size must be positive: " + max);
+    }
+
     /*
 	 * wrapper method to basic receive method -> call blocks on socket until message is received or 
 	 * timeout expires and exception is raised
@@ -97,6 +213,28 @@ public class PhyProtocol extends Protocol {
 		return in;
 	}
 	
+	/*
+	 * non-blocking receive -> the returned future is completed by the shared receiver thread of this
+	 * instance with the next message, or with a SocketTimeoutException when the deadline (ms) expires
+	 * (0 = no deadline). Once used, all messages are consumed by the receiver thread, so receive()
+	 * must not be called concurrently on the same instance.
+	 */
+	public CompletableFuture<Msg> receiveAsync(int timeout) {
+		PhyAsyncReceiver r = this.asyncReceiver;
+		if (r == null) {
+			synchronized (this) {
+				if (this.asyncReceiver == null) {
+					this.asyncReceiver = new PhyAsyncReceiver(this);
+					Thread t = new Thread(this.asyncReceiver, "phy-receiver");
+					t.setDaemon(true);
+					t.start();
+				}
+				r = this.asyncReceiver;
+			}
+		}
+		return r.receive(timeout);
+	}
+
 	// Send three ping messages to another system
 	public void ping(Configuration config) throws IOException, IWProtocolException {
 		for(int i=0; i<3;i++) {
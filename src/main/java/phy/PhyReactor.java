@@ -0,0 +1,94 @@
+package phy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import core.Msg;
+import exceptions.IWProtocolException;
+
+/*
+ * Selector based event loop that serves many NioPhyProtocol endpoints from one thread
+ * Whenever an endpoint becomes readable all queued datagrams are drained and handed
+ * to the handler registered for that endpoint (e.g. CPProtocol::dispatchBatch)
+ */
+public class PhyReactor implements Runnable {
+	private final Selector selector;
+	private final int batchSize;
+	private final ConcurrentLinkedQueue<Endpoint> registrations = new ConcurrentLinkedQueue<>();
+	private volatile boolean running = true;
+
+	/*
+	 * Handler invoked on the reactor thread with the messages received by one endpoint
+	 */
+	@FunctionalInterface
+	public interface Handler {
+		void handle(List<Msg> batch) throws IOException, IWProtocolException;
+	}
+
+	private record Endpoint(NioPhyProtocol phy, Handler handler) {}
+
+	public PhyReactor(int batchSize) throws IOException {
+		PhyProtocol.checkBatchSize(batchSize);
+		this.selector = Selector.open();
+		this.batchSize = batchSize;
+	}
+
+	/*
+	 * Add an endpoint to the event loop -> may be called from any thread, also while the loop is running
+	 */
+	public void register(NioPhyProtocol phy, Handler handler) {
+		registrations.add(new Endpoint(phy, handler));
+		selector.wakeup();
+	}
+
+	/*
+	 * Stop the event loop after the current iteration
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				registerPending();
+				selector.select();
+			} catch (IOException e) {
+				System.out.println("Reactor IO error: " + e.getMessage());
+				return;
+			}
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				if (key.isValid() && key.isReadable())
+					serve((Endpoint) key.attachment());
+			}
+		}
+	}
+
+	// drain one readable endpoint and pass the batch to its handler
+	private void serve(Endpoint ep) {
+		try {
+			List<Msg> batch = ep.phy().poll(batchSize);
+			if (!batch.isEmpty())
+				ep.handler().handle(batch);
+		} catch (IOException e) {
+			System.out.println("IO error while serving endpoint: " + e.getMessage());
+		} catch (IWProtocolException e) {
+			System.out.println("Discarded a malformed message.");
+		}
+	}
+
+	private void registerPending() throws IOException {
+		Endpoint ep;
+		while ((ep = registrations.poll()) != null)
+			ep.phy().register(selector, ep);
+	}
+}
@@ -0,0 +1,57 @@
+package phy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Per thread queue of outgoing datagrams (see PhyProtocol.beginBatch)
+ * Frames are copied back to back into one arena buffer that is kept and reused,
+ * so queuing does not allocate once the arena has grown to the usual batch size
+ */
+final class PhySendQueue {
+	private ByteBuffer arena = ByteBuffer.allocate(16 * 1024);
+	private int[] ends = new int[64];
+	private final ArrayList<PhyConfiguration> targets = new ArrayList<>();
+	private boolean open;
+
+	boolean isOpen() {return this.open;}
+	void open() {this.open = true;}
+
+	boolean isEmpty() {return this.targets.isEmpty();}
+
+	// copy the frame between position and limit into the arena
+	void add(ByteBuffer frame, PhyConfiguration to) {
+		if (arena.remaining() < frame.remaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(arena.capacity() * 2, arena.position() + frame.remaining()));
+			arena.flip();
+			larger.put(arena);
+			arena = larger;
+		}
+		if (targets.size() == ends.length)
+			ends = Arrays.copyOf(ends, ends.length * 2);
+		arena.put(frame);
+		ends[targets.size()] = arena.position();
+		targets.add(to);
+	}
+
+	/*
+	 * Transmit all queued frames in order and empty the queue (the queue stays open)
+	 */
+	void flush(PhyProtocol phy) throws IOException {
+		int start = 0;
+		try {
+			for (int i = 0; i < targets.size(); i++) {
+				arena.limit(ends[i]).position(start);
+				phy.transmit(arena, targets.get(i));
+				start = ends[i];
+			}
+		} finally {
+			arena.clear();
+			targets.clear();
+		}
+	}
+
+	void close() {this.open = false;}
+}
@@ -0,0 +1,64 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedCookieStoreTest {
+    private static PhyConfiguration client(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getByName("127.0.0.1"), port, CP);
+    }
+
+    // issue cookies to clients 1..3 at 0, 1, 2, verify the first one twice and the second once, then add client 4
+    private static int[] fill(BoundedCookieStore store) throws UnknownHostException {
+        int[] c = new int[5];
+        for (int i = 1; i <= 3; i++)
+            c[i] = store.issue(client(i), i - 1);
+        assertTrue(store.verify(c[1], 10));
+        assertTrue(store.verify(c[1], 11));
+        assertTrue(store.verify(c[2], 12));
+        c[4] = store.issue(client(4), 13);
+        assertTrue(c[4] >= 0);
+        assertEquals(3, store.size());
+        assertEquals(1, store.getEvictions());
+        return c;
+    }
+
+    @Test
+    @DisplayName("Bounded cookie store LRU eviction test")
+    void lruTest() throws UnknownHostException {
+        BoundedCookieStore store = new BoundedCookieStore(3, 1000, BoundedCookieStore.EvictionPolicy.LRU);
+        int[] c = fill(store);
+        assertFalse(store.verify(c[3], 14)); // least recently used
+        assertTrue(store.verify(c[1], 14));
+    }
+
+    @Test
+    @DisplayName("Bounded cookie store LFU eviction test")
+    void lfuTest() throws UnknownHostException {
+        BoundedCookieStore store = new BoundedCookieStore(3, 1000, BoundedCookieStore.EvictionPolicy.LFU);
+        int[] c = fill(store);
+        assertFalse(store.verify(c[3], 14)); // never verified
+        // a renewal keeps the usage count of the client
+        int renewed = store.issue(client(1), 15);
+        store.issue(client(5), 16);
+        assertTrue(store.verify(renewed, 17));
+        assertFalse(store.verify(c[4], 17));
+    }
+
+    @Test
+    @DisplayName("Bounded cookie store TTL-first eviction and expiry test")
+    void ttlTest() throws UnknownHostException {
+        BoundedCookieStore store = new BoundedCookieStore(3, 1000, BoundedCookieStore.EvictionPolicy.TTL_FIRST);
+        int[] c = fill(store);
+        assertFalse(store.verify(c[1], 14)); // oldest, although used most
+        assertEquals(2, store.expire(1002)); // cookies of clients 2 and 3
+        assertTrue(store.verify(c[4], 1002));
+    }
+}
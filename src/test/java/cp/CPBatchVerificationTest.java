@@ -0,0 +1,62 @@
+package cp;
+
+import exceptions.IWProtocolException;
+import exceptions.IllegalMsgException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPBatchVerificationTest {
+    @Test
+    @DisplayName("Batch verification request text and binary round trip test")
+    void requestRoundTripTest() throws IWProtocolException {
+        CPCookieBatchVerificationRequestMsg req = new CPCookieBatchVerificationRequestMsg();
+        req.create(new int[] {1, 300}, new long[] {12345, Long.MAX_VALUE}, 2);
+        assertEquals("cp cookie_batch_verification_request 2 1 12345 300 " + Long.MAX_VALUE,
+                new String(req.getDataBytes()));
+
+        for (CPMsg parsed : new CPMsg[] {
+                (CPMsg) new CPMsg().parse(new String(req.getDataBytes())),
+                new CPMsg().parseBinary(ByteBuffer.wrap(req.toBinary()))}) {
+            CPCookieBatchVerificationRequestMsg in = assertInstanceOf(CPCookieBatchVerificationRequestMsg.class, parsed);
+            assertEquals(2, in.getCount());
+            assertEquals(300, in.getId(1));
+            assertEquals(Long.MAX_VALUE, in.getCookie(1));
+        }
+    }
+
+    @Test
+    @DisplayName("Batch verification response parse test")
+    void responseParseTest() throws IWProtocolException {
+        CPMsg parsed = (CPMsg) new CPMsg().parse("cp cookie_batch_verification_response 2 4 ok 5000 5 error 0");
+        CPCookieBatchVerificationResponseMsg in = assertInstanceOf(CPCookieBatchVerificationResponseMsg.class, parsed);
+        assertTrue(in.isSuccess(0));
+        assertEquals(5000, in.getRemainingLifetime(0));
+        assertEquals(5, in.getId(1));
+        assertFalse(in.isSuccess(1));
+        assertThrows(IWProtocolException.class,
+                () -> new CPMsg().parse("cp cookie_batch_verification_response 2 4 ok 5000"));
+        // truncated datagram without the batch size
+        assertThrows(IllegalMsgException.class, () -> new CPMsg().parse("cp cookie_batch_verification_response"));
+    }
+
+    @Test
+    @DisplayName("Verification response with optional remaining lifetime test")
+    void singleResponseLifetimeTest() throws IWProtocolException {
+        CPCookieVerificationResponseMsg res = new CPCookieVerificationResponseMsg();
+        res.create(true, 4200);
+        for (CPMsg parsed : new CPMsg[] {
+                (CPMsg) new CPMsg().parse(new String(res.getDataBytes())),
+                new CPMsg().parseBinary(ByteBuffer.wrap(res.toBinary()))}) {
+            CPCookieVerificationResponseMsg in = assertInstanceOf(CPCookieVerificationResponseMsg.class, parsed);
+            assertTrue(in.isSuccess());
+            assertEquals(4200, in.getRemainingLifetime());
+        }
+        // responses without the field are still accepted, they are just not cached
+        CPMsg old = (CPMsg) new CPMsg().parse("cp cookie_verification_response ok");
+        assertEquals(0, assertInstanceOf(CPCookieVerificationResponseMsg.class, old).getRemainingLifetime());
+    }
+}
@@ -0,0 +1,120 @@
+package cp;
+
+import exceptions.IWProtocolException;
+import exceptions.IllegalMsgException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPBinaryFormatTest {
+    @Test
+    @DisplayName("Binary command message round trip test")
+    void commandRoundTripTest() throws IllegalMsgException {
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("print Hello World", 300, 123456789);
+        byte[] frame = cmd.toBinary();
+        assertTrue(frame.length < cmd.getDataBytes().length);
+
+        CPMsg parsed = new CPMsg().parseBinary(ByteBuffer.wrap(frame));
+        CPCommandMsg in = assertInstanceOf(CPCommandMsg.class, parsed);
+        assertTrue(in.isBinary());
+        assertEquals(300, in.getId());
+        assertEquals(123456789, in.getCookie());
+        assertEquals("print", in.getCommand());
+        assertEquals("Hello World", in.getMessage());
+    }
+
+    @Test
+    @DisplayName("Binary cookie NAK round trip test")
+    void cookieNakRoundTripTest() throws IllegalMsgException {
+        CPCookieResponseMsg resp = new CPCookieResponseMsg(false);
+        resp.create("Server full");
+
+        CPMsg parsed = new CPMsg().parseBinary(ByteBuffer.wrap(resp.toBinary()));
+        CPCookieResponseMsg in = assertInstanceOf(CPCookieResponseMsg.class, parsed);
+        assertFalse(in.getSuccess());
+        assertEquals("Server full", in.getData());
+    }
+
+    @Test
+    @DisplayName("Verification correlation id text and binary round trip test")
+    void verificationCorrelationIdTest() throws IWProtocolException {
+        CPCookieVerificationRequestMsg req = new CPCookieVerificationRequestMsg();
+        req.create(4711, 300);
+        CPCookieVerificationResponseMsg res = new CPCookieVerificationResponseMsg();
+        res.create(false, 0, 300);
+        assertEquals("cp cookie_verification_response error 0 300", new String(res.getDataBytes()));
+
+        for (CPMsg parsed : new CPMsg[] {
+                (CPMsg) new CPMsg().parse(new String(req.getDataBytes())),
+                new CPMsg().parseBinary(ByteBuffer.wrap(req.toBinary()))}) {
+            CPCookieVerificationRequestMsg in = assertInstanceOf(CPCookieVerificationRequestMsg.class, parsed);
+            assertEquals(4711, in.getCookieValue());
+            assertEquals(300, in.getCorrelationId());
+        }
+        for (CPMsg parsed : new CPMsg[] {
+                (CPMsg) new CPMsg().parse(new String(res.getDataBytes())),
+                new CPMsg().parseBinary(ByteBuffer.wrap(res.toBinary()))}) {
+            CPCookieVerificationResponseMsg in = assertInstanceOf(CPCookieVerificationResponseMsg.class, parsed);
+            assertFalse(in.isSuccess());
+            assertEquals(300, in.getCorrelationId());
+        }
+    }
+
+    @Test
+    @DisplayName("Binary round trip test of every message type")
+    void everyTypeRoundTripTest() throws IllegalMsgException {
+        CPCookieRequestMsg cookieReq = new CPCookieRequestMsg();
+        cookieReq.create(null);
+        CPCookieResponseMsg cookieRes = new CPCookieResponseMsg(true);
+        cookieRes.create("987654321");
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("status", 1, 42);
+        CPCommandResponseMsg cmdRes = new CPCommandResponseMsg();
+        cmdRes.create(1, true, "ok");
+        CPCookieVerificationRequestMsg verifyReq = new CPCookieVerificationRequestMsg();
+        verifyReq.create(42);
+        CPCookieVerificationResponseMsg verifyRes = new CPCookieVerificationResponseMsg();
+        verifyRes.create(true, 5000);
+        CPCookieBatchVerificationRequestMsg batchReq = new CPCookieBatchVerificationRequestMsg();
+        batchReq.create(new int[] {3, 4}, new long[] {42, 43}, 2);
+        CPCookieBatchVerificationResponseMsg batchRes = new CPCookieBatchVerificationResponseMsg();
+        batchRes.create(new int[] {3, 4}, new boolean[] {true, false}, new long[] {5000, 0}, 2);
+
+        // the type byte selects the class again, text and binary parse to the same fields
+        for (CPMsg msg : new CPMsg[] {cookieReq, cookieRes, cmd, cmdRes, verifyReq, verifyRes, batchReq, batchRes}) {
+            CPMsg parsed = new CPMsg().parseBinary(ByteBuffer.wrap(msg.toBinary()));
+            assertSame(msg.getClass(), parsed.getClass());
+            assertArrayEquals(msg.toBinary(), parsed.toBinary());
+        }
+        assertEquals(987654321, ((CPCookieResponseMsg) new CPMsg().parseBinary(
+                ByteBuffer.wrap(cookieRes.toBinary()))).getCookie());
+        CPCookieBatchVerificationResponseMsg batch = (CPCookieBatchVerificationResponseMsg)
+                new CPMsg().parseBinary(ByteBuffer.wrap(batchRes.toBinary()));
+        assertEquals(4, batch.getId(1));
+        assertFalse(batch.isSuccess(1));
+        assertEquals(5000, batch.getRemainingLifetime(0));
+    }
+
+    @Test
+    @DisplayName("Message without binary format test")
+    void noBinaryTypeTest() {
+        CPMsg plain = new CPMsg();
+        assertThrows(IllegalStateException.class, plain::toBinary);
+    }
+
+    @Test
+    @DisplayName("Corrupted binary message test")
+    void corruptedFrameTest() {
+        CPCommandResponseMsg resp = new CPCommandResponseMsg();
+        resp.create(7, true, "ok");
+        byte[] frame = resp.toBinary();
+        frame[2] ^= 0x01;
+
+        assertThrows(IllegalMsgException.class, () -> new CPMsg().parseBinary(ByteBuffer.wrap(frame)));
+        assertThrows(IllegalMsgException.class, () -> new CPMsg().parseBinary(ByteBuffer.wrap(new byte[] {3, 0})));
+    }
+}
@@ -0,0 +1,58 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+    private static List<PhyConfiguration> shards(int count) throws UnknownHostException {
+        List<PhyConfiguration> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            shards.add(new PhyConfiguration(InetAddress.getByName("127.0.0.1"), 3000 + i, CP));
+        return shards;
+    }
+
+    @Test
+    @DisplayName("Consistent hash ring ownership, balance and rebalancing test")
+    void ringTest() throws UnknownHostException {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(3));
+        ConsistentHashRing same = new ConsistentHashRing(shards(3));
+        ConsistentHashRing grown = new ConsistentHashRing(shards(4));
+        int[] owned = new int[3];
+        for (long key = 0; key < 30000; key++) {
+            int shard = ring.shardOf(key);
+            owned[shard]++;
+            // every party with the same list agrees on the owner
+            assertEquals(shard, same.shardOf(key));
+            // a new shard only takes keys over, the others keep their owner
+            int moved = grown.shardOf(key);
+            assertTrue(moved == shard || moved == 3);
+        }
+        for (int n : owned)
+            assertTrue(n > 5000 && n < 15000, "unbalanced ring: " + n);
+        assertEquals(1, ring.indexOf(shards(3).get(1)));
+        assertEquals(-1, ring.indexOf(shards(4).get(3)));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of()));
+    }
+
+    @Test
+    @DisplayName("Cookie values restricted to the own shard test")
+    void shardValueFilterTest() throws UnknownHostException {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(3));
+        CookieStore store = new BoundedCookieStore(100, 60000, BoundedCookieStore.EvictionPolicy.LRU);
+        store.setValueFilter(value -> ring.shardOf(value) == 2);
+        long now = System.currentTimeMillis();
+        for (int port = 0; port < 100; port++) {
+            int cookie = store.issue(new PhyConfiguration(InetAddress.getByName("10.0.0.1"), port, CP), now);
+            assertEquals(2, ring.shardOf(cookie));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieSignerTest {
+    private static final long NOW = 1_800_000_000_000L;
+
+    @Test
+    @DisplayName("Signed cookie verification test")
+    void verifyTest() throws UnknownHostException {
+        CookieSigner signer = new CookieSigner("secret".getBytes(StandardCharsets.UTF_8), 60000);
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("10.0.0.1"), 4000, CP);
+        long cookie = signer.issue(client, NOW);
+        assertTrue(cookie > Integer.MAX_VALUE);
+        assertTrue(signer.verify(cookie, client, NOW + 59999));
+        assertFalse(signer.verify(cookie, client, NOW + 61000)); // expired
+        assertFalse(signer.verify(cookie ^ 1, client, NOW)); // forged
+        assertFalse(signer.verify(cookie,
+                new PhyConfiguration(InetAddress.getByName("10.0.0.1"), 4001, CP), NOW)); // other client
+        assertFalse(new CookieSigner("other".getBytes(StandardCharsets.UTF_8), 60000).verify(cookie, client, NOW));
+    }
+}
@@ -0,0 +1,52 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MapCookieStoreTest {
+    // returns the given values in order
+    private static Random sequence(int... values) {
+        return new Random() {
+            private int next;
+
+            @Override
+            public int nextInt(int bound) {
+                return values[next++];
+            }
+        };
+    }
+
+    private static PhyConfiguration client(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getByName("127.0.0.1"), port, CP);
+    }
+
+    @Test
+    @DisplayName("Map cookie store value redraw and index cleanup test")
+    void redrawAndCleanupTest() throws UnknownHostException {
+        MapCookieStore store = new MapCookieStore(10, 1000, sequence(5, 5, 7, 9, 5));
+        long now = System.currentTimeMillis();
+        assertEquals(5, store.issue(client(1), now));
+        // value 5 is live -> drawn again
+        assertEquals(7, store.issue(client(2), now));
+
+        // renewal removes the previous value of the client from the index, so it can be issued again
+        assertEquals(9, store.issue(client(1), now));
+        assertFalse(store.verify(5, now + 1));
+        assertEquals(5, store.issue(client(3), now));
+        assertEquals(3, store.size());
+
+        // expired cookies leave both maps, the overwritten entry of client 1 does not remove its current cookie
+        assertEquals(3, store.expire(now + 2001));
+        assertEquals(0, store.size());
+        assertFalse(store.verify(9, now + 2001));
+        assertFalse(store.verify(7, now + 2001));
+    }
+}
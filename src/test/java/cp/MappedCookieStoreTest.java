@@ -0,0 +1,50 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import phy.PhyConfiguration;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedCookieStoreTest {
+    @Test
+    @DisplayName("Mapped cookie store reopen test")
+    void reopenTest(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("cookies.db");
+        long now = System.currentTimeMillis();
+        int first, second;
+        try (MappedCookieStore store = MappedCookieStore.open(file, 16, 60000)) {
+            first = store.issue(new PhyConfiguration(InetAddress.getByName("10.0.0.1"), 4000, CP), now);
+            second = store.issue(new PhyConfiguration(InetAddress.getByName("10.0.0.2"), 4000, CP), now);
+        }
+        try (MappedCookieStore store = MappedCookieStore.open(file, 16, 60000)) {
+            assertEquals(2, store.size());
+            assertTrue(store.verify(first, now + 1));
+        }
+
+        // simulate a crash in the middle of an update -> the table is repaired on reopen
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(4).putInt(0, 1), 8);
+        }
+        try (MappedCookieStore store = MappedCookieStore.open(file, 16, 60000)) {
+            assertEquals(2, store.size());
+            assertTrue(store.verify(first, now + 1));
+            assertTrue(store.verify(second, now + 1));
+        }
+
+        // a different capacity starts with an empty table
+        try (MappedCookieStore store = MappedCookieStore.open(file, 64, 60000)) {
+            assertEquals(0, store.size());
+            assertFalse(store.verify(first, now + 1));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedCookieStoreTest {
+    private static PhyConfiguration client(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getByName("127.0.0.1"), port, CP);
+    }
+
+    @Test
+    @DisplayName("Packed cookie store renewal and expiry test")
+    void renewalExpiryTest() throws UnknownHostException {
+        PackedCookieStore store = new PackedCookieStore(2, 1000, true);
+        int first = store.issue(client(5000), 0);
+        int renewed = store.issue(client(5000), 10);
+        assertTrue(first > 0 && renewed > 0);
+        assertFalse(store.verify(first, 20));
+        assertTrue(store.verify(renewed, 20));
+
+        assertTrue(store.issue(client(5001), 500) > 0);
+        assertEquals(-1, store.issue(client(5002), 600)); // full
+        // the cookie issued at 10 has expired at 1010 -> its slot is free again
+        assertTrue(store.issue(client(5002), 1010) > 0);
+        assertFalse(store.verify(renewed, 1010));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    @DisplayName("Packed cookie store refuses clients without IPv4 address")
+    void ipv6Test() throws UnknownHostException {
+        PackedCookieStore store = new PackedCookieStore(2, 1000);
+        assertEquals(CookieStore.UNSUPPORTED_ADDRESS, store.issue(new PhyConfiguration(InetAddress.getByName("::1"), 5000, CP), 0));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    @DisplayName("Packed cookie store deletion keeps probe chains intact test")
+    void manyClientsTest() throws UnknownHostException {
+        PackedCookieStore store = new PackedCookieStore(1000, 1000);
+        int[] cookies = new int[1000];
+        for (int i = 0; i < cookies.length; i++)
+            cookies[i] = store.issue(client(10000 + i), i);
+        // at 1499 the cookies issued before 500 have expired
+        store.expire(1499);
+        for (int i = 0; i < cookies.length; i++)
+            assertEquals(i >= 500, store.verify(cookies[i], 1499));
+        assertEquals(500, store.size());
+    }
+}
@@ -0,0 +1,111 @@
+package cp;
+
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PendingCommandsTest {
+    private static PhyConfiguration cookieServer(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getLoopbackAddress(), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("Pending command timeout and capacity test")
+    void timeoutTest() throws UnknownHostException {
+        PhyConfiguration server = cookieServer(3000);
+        List<CPCommandMsg> timedOut = new ArrayList<>();
+        PendingCommands pending = new PendingCommands(2, 10000, timedOut::add);
+        CPCommandMsg answered = new CPCommandMsg();
+        answered.create("status", 1, 42);
+        CPCommandMsg lost = new CPCommandMsg();
+        lost.create("status", 2, 42);
+
+        long now = System.currentTimeMillis();
+        int a = pending.add(answered, server, now);
+        int b = pending.add(lost, server, now);
+        assertNotEquals(a, b);
+        // bounded while the cookie server does not answer
+        assertEquals(-1, pending.add(new CPCommandMsg(), server, now));
+
+        assertSame(answered, pending.remove(a, server));
+        assertEquals(0, pending.expire(now + 9999));
+        assertEquals(1, pending.expire(now + 10100));
+        assertEquals(List.of(lost), timedOut);
+        assertEquals(0, pending.size());
+        // a late result is ignored
+        assertNull(pending.remove(b, server));
+    }
+
+    @Test
+    @DisplayName("Striped pending commands test")
+    void stripedTest() throws InterruptedException, UnknownHostException {
+        PhyConfiguration server = cookieServer(3000);
+        PendingCommands pending = new PendingCommands(4, 10000, 2, cmd -> {});
+        long now = System.currentTimeMillis();
+        int[] ids = new int[4];
+        // one thread fills its own stripe first, then the other one
+        for (int i = 0; i < 4; i++)
+            ids[i] = pending.add(new CPCommandMsg(), server, now);
+        assertEquals(-1, pending.add(new CPCommandMsg(), server, now));
+        assertEquals(4, pending.size());
+        assertEquals(ids[0] & 1, ids[1] & 1);
+        assertNotEquals(ids[1] & 1, ids[2] & 1);
+
+        // results may be removed by any thread
+        Thread other = new Thread(() -> {
+            for (int id : ids)
+                assertNotNull(pending.remove(id, server));
+        });
+        other.start();
+        other.join();
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    @DisplayName("Verification result from another address test")
+    void forgedResultTest() throws UnknownHostException {
+        PhyConfiguration server = cookieServer(3000);
+        PendingCommands pending = new PendingCommands(16, 10000, cmd -> {});
+        CPCommandMsg cmd = new CPCommandMsg();
+        int id = pending.add(cmd, server, System.currentTimeMillis());
+        PhyConfiguration forger = cookieServer(4000);
+
+        // ignored, the command still waits for the cookie server asked
+        assertNull(pending.remove(id, forger));
+        assertEquals(1, pending.size());
+        assertSame(cmd, pending.remove(id, server));
+        // random ids: consecutive commands are not numbered in sequence
+        int first = pending.add(cmd, server, 0);
+        int second = pending.add(cmd, server, 0);
+        int third = pending.add(cmd, server, 0);
+        assertFalse(second == first + 1 && third == second + 1);
+    }
+
+    @Test
+    @DisplayName("Timer of closed pending commands test")
+    void closeTest() throws InterruptedException, UnknownHostException {
+        PhyConfiguration server = cookieServer(3000);
+        List<CPCommandMsg> timedOut = new CopyOnWriteArrayList<>();
+        PendingCommands open = new PendingCommands(4, 100, timedOut::add);
+        PendingCommands closed = new PendingCommands(4, 100, timedOut::add);
+        CPCommandMsg expected = new CPCommandMsg();
+        open.add(expected, server, System.currentTimeMillis());
+        closed.add(new CPCommandMsg(), server, System.currentTimeMillis());
+        closed.close();
+
+        // the shared timer still serves the open instance, the closed one is left alone
+        Thread.sleep(500);
+        assertEquals(List.of(expected), timedOut);
+        assertEquals(1, closed.size());
+        open.close();
+    }
+}
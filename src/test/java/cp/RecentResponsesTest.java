@@ -0,0 +1,66 @@
+package cp;
+
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentResponsesTest {
+    private static PhyConfiguration client(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getByName("127.0.0.1"), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("Copies of a command are dropped while it runs and answered with the stored response")
+    void replayTest() throws UnknownHostException {
+        RecentResponses responses = new RecentResponses(16, 1000, 1);
+        assertNull(responses.begin(client(5000), 42, 7, 0));
+        assertSame(RecentResponses.IN_PROGRESS, responses.begin(client(5000), 42, 7, 10));
+        // same id from another client or with another cookie is a different command
+        assertNull(responses.begin(client(5001), 42, 7, 10));
+        assertNull(responses.begin(client(5000), 43, 7, 10));
+
+        responses.complete(client(5000), 42, 7, true, "Command executed successfully", 20);
+        CPCommandResponseMsg res = responses.begin(client(5000), 42, 7, 30);
+        assertNotNull(res);
+        assertNotSame(RecentResponses.IN_PROGRESS, res);
+        assertEquals(7, res.getId());
+        assertTrue(res.isSuccess());
+        assertEquals("Command executed successfully", res.getResponseMessage());
+
+        // kept for the retention time after the response
+        assertNull(responses.begin(client(5000), 42, 7, 1020));
+    }
+
+    @Test
+    @DisplayName("A command that was not executed is processed again")
+    void forgetTest() throws UnknownHostException {
+        RecentResponses responses = new RecentResponses(16, 1000, 1);
+        assertNull(responses.begin(client(5000), 42, 7, 0));
+        responses.forget(client(5000), 42, 7);
+        assertNull(responses.begin(client(5000), 42, 7, 10));
+    }
+
+    @Test
+    @DisplayName("Above capacity the oldest answered entry is dropped, commands being processed are kept")
+    void capacityTest() throws UnknownHostException {
+        RecentResponses responses = new RecentResponses(2, 1000, 1);
+        responses.begin(client(5000), 42, 1, 0);
+        responses.begin(client(5000), 42, 2, 0);
+        responses.begin(client(5000), 42, 3, 0);
+        // nothing answered yet -> the capacity is exceeded rather than a running command forgotten
+        assertEquals(3, responses.size());
+        assertSame(RecentResponses.IN_PROGRESS, responses.begin(client(5000), 42, 1, 0));
+
+        responses.complete(client(5000), 42, 2, true, "Command executed successfully", 0);
+        responses.complete(client(5000), 42, 1, true, "Command executed successfully", 0);
+        // the first answered entry is the oldest one that may go
+        assertEquals(2, responses.size());
+        assertNull(responses.begin(client(5000), 42, 2, 0));
+    }
+}
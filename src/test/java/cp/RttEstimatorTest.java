@@ -0,0 +1,34 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RttEstimatorTest {
+    @Test
+    @DisplayName("RTO from RTT samples, backoff and bounds test")
+    void rtoTest() {
+        RttEstimator rtt = new RttEstimator(2000, 100, 8000);
+        assertEquals(2000, rtt.rto());
+        rtt.backoff();
+        rtt.backoff();
+        rtt.backoff();
+        assertEquals(8000, rtt.rto());
+
+        // first sample: SRTT = 200, RTTVAR = 100 -> RTO = 600, the backoff is reset
+        rtt.sample(200);
+        assertEquals(200, rtt.srtt());
+        assertEquals(600, rtt.rto());
+        // RTTVAR = 0.75 * 100 + 0.25 * 0 = 75, SRTT = 200 -> RTO = 500
+        rtt.sample(200);
+        assertEquals(500, rtt.rto());
+        rtt.backoff();
+        assertEquals(1000, rtt.rto());
+
+        // a fast LAN does not go below the minimum
+        for (int i = 0; i < 50; i++)
+            rtt.sample(0.2);
+        assertEquals(100, rtt.rto());
+    }
+}
@@ -0,0 +1,65 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static core.Protocol.proto_id.CP;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedCookieStoreTest {
+    @Test
+    @DisplayName("Striped cookie store concurrent issue and verify test")
+    void concurrentTest() throws Exception {
+        StripedCookieStore store = new StripedCookieStore(4096, 60000, 8, false);
+        assertEquals(8, store.stripeCount());
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            InetAddress ip = InetAddress.getByName("10.0.0." + (t + 1));
+            threads.add(new Thread(() -> {
+                for (int port = 0; port < 500; port++) {
+                    try {
+                        int cookie = store.issue(new PhyConfiguration(ip, port, CP), 0);
+                        if (cookie < 0 || !store.verify(cookie, 1))
+                            failures.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, failures.get());
+        assertEquals(2000, store.size());
+    }
+
+    @Test
+    @DisplayName("Striped cookie store keeps clients without IPv4 address")
+    void ipv6Test() throws Exception {
+        StripedCookieStore store = new StripedCookieStore(4096, 60000, 8, false);
+        // values of a shard, as set by a sharded cookie server
+        store.setValueFilter(v -> v % 3 == 0);
+        PhyConfiguration v6 = new PhyConfiguration(InetAddress.getByName("2001:db8::1"), 5000, CP);
+        PhyConfiguration v4 = new PhyConfiguration(InetAddress.getByName("10.0.0.1"), 5000, CP);
+        long now = System.currentTimeMillis();
+
+        int first = store.issue(v6, now);
+        int renewed = store.issue(v6, now);
+        int other = store.issue(v4, now);
+        assertTrue(first >= 0 && renewed >= 0 && other >= 0);
+        assertEquals(0, renewed % 3);
+        assertFalse(store.verify(first, now));
+        assertTrue(store.verify(renewed, now));
+        assertTrue(store.verify(other, now));
+        assertEquals(2, store.size());
+    }
+}
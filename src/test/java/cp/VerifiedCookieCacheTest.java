@@ -0,0 +1,38 @@
+package cp;
+
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerifiedCookieCacheTest {
+    private static PhyConfiguration client(int port) throws UnknownHostException {
+        return new PhyConfiguration(InetAddress.getByName("127.0.0.1"), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("Verified cookie cache expiry, client binding and capacity test")
+    void cacheTest() throws UnknownHostException {
+        VerifiedCookieCache cache = new VerifiedCookieCache(2);
+        cache.put(client(5000), 42, 1000);
+        assertTrue(cache.contains(client(5000), 42, 999));
+        // the same cookie from another client is not accepted locally
+        assertFalse(cache.contains(client(5001), 42, 0));
+        assertFalse(cache.contains(client(5000), 42, 1000));
+        assertEquals(0, cache.size());
+
+        cache.put(client(5000), 1, 1000);
+        cache.put(client(5001), 2, 1000);
+        cache.contains(client(5000), 1, 0);
+        cache.put(client(5002), 3, 1000);
+        // least recently used entry dropped
+        assertFalse(cache.contains(client(5001), 2, 0));
+        assertTrue(cache.contains(client(5000), 1, 0));
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,91 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import cp.CPAsyncClient;
+import cp.CPCommandResponseMsg;
+import cp.CPProtocol;
+import exceptions.IWProtocolException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CPAsyncClientTest {
+    String serverName = "localhost";
+    int serverPort = 3027;
+
+    @Mock
+    PhyProtocol phyProtocolMock;
+
+    @Test
+    void testExpiredCookieIsRenewed() throws Exception {
+        PhyConfiguration phyConfig = new PhyConfiguration(InetAddress.getByName(serverName), serverPort, Protocol.proto_id.CP);
+        PhyMsg cookie1 = (PhyMsg) new PhyMsg(phyConfig).parse("phy 7 cp cookie_response ACK 12345");
+        PhyMsg cookie2 = (PhyMsg) new PhyMsg(phyConfig).parse("phy 7 cp cookie_response ACK 54321");
+        // Implement behavior of the mocked object: the first cookie is rejected, the command is sent again
+        when(phyProtocolMock.receiveAsync(anyInt())).thenReturn(future(cookie1),
+                future(response(phyConfig, 0, false, "Invalid or expired cookie")), future(cookie2),
+                future(response(phyConfig, 1, true, "Command executed successfully")));
+
+        CPAsyncClient client = new CPAsyncClient(new CPProtocol(InetAddress.getByName(serverName), serverPort, phyProtocolMock), 4);
+        CPCommandResponseMsg res = client.submit("status").get(5, TimeUnit.SECONDS);
+        client.close();
+
+        // Run the test
+        assertTrue(res.isSuccess());
+        assertEquals(1, res.getId());
+        // verify a specified behavior: two cookie requests (no cookie server configured) and two commands
+        verify(phyProtocolMock, times(4)).send(any(Msg.class), any());
+    }
+
+    @Test
+    void testCloseCancelsQueuedCommands() throws Exception {
+        // the cookie server never answers, the commands stay queued
+        when(phyProtocolMock.receiveAsync(anyInt())).thenReturn(new CompletableFuture<>());
+        CPAsyncClient client = new CPAsyncClient(new CPProtocol(InetAddress.getByName(serverName), serverPort, phyProtocolMock), 4);
+        CompletableFuture<CPCommandResponseMsg> first = client.submit("status");
+        CompletableFuture<CPCommandResponseMsg> second = client.submit("status");
+        // receiver thread waits for the cookie response
+        verify(phyProtocolMock, timeout(2000)).receiveAsync(anyInt());
+        client.close();
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertTrue(client.submit("status").isCancelled());
+    }
+
+    @Test
+    void testSocketFailureFailsQueuedCommands() throws Exception {
+        when(phyProtocolMock.receiveAsync(anyInt())).thenReturn(CompletableFuture.failedFuture(new IOException("closed")));
+        CPAsyncClient client = new CPAsyncClient(new CPProtocol(InetAddress.getByName(serverName), serverPort, phyProtocolMock), 4);
+        CompletableFuture<CPCommandResponseMsg> res = client.submit("status");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> res.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        client.close();
+    }
+
+    private static CompletableFuture<Msg> future(Msg m) {
+        return CompletableFuture.completedFuture(m);
+    }
+
+    private PhyMsg response(PhyConfiguration config, int id, boolean ok, String text) throws IWProtocolException {
+        CPCommandResponseMsg res = new CPCommandResponseMsg();
+        res.create(id, ok, text);
+        return (PhyMsg) new PhyMsg(config).parse("phy 7 " + new String(res.getDataBytes()));
+    }
+}
@@ -1,7 +1,9 @@
 package phy;
 
+import core.Msg;
 import core.Protocol;
 import cp.CPProtocol;
+import cp.ConsistentHashRing;
 import exceptions.CookieRequestException;
 import exceptions.IWProtocolException;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,10 +17,12 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -50,6 +54,11 @@ public class CPClientCookieRequestTest {
         cProtocol.setCookieServer(InetAddress.getByName(serverName), cookieServerPort);
     }
 
+    // matches the CP message handed to the phy layer by its encoded text
+    private static Msg cpMsg(String expected) {
+        return argThat(m -> m != null && expected.equals(new String(m.getDataBytes())));
+    }
+
     @Test
     void testCookieRequestSuccessful() throws IWProtocolException, IOException {
         // Fill the message object that is going to be returned to the object-under-test
@@ -64,8 +73,8 @@ public class CPClientCookieRequestTest {
 
         // verify a specified behavior
         verify(phyProtocolMock, times(1)).receive(2000);
-        verify(phyProtocolMock).send(eq("cp cookie_request"), any(PhyConfiguration.class));
-        verify(phyProtocolMock, times(1)).send(anyString(), any(PhyConfiguration.class));
+        verify(phyProtocolMock).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
+        verify(phyProtocolMock, times(1)).send(any(Msg.class), any(PhyConfiguration.class));
     }
 
     @Test
@@ -82,7 +91,7 @@ public class CPClientCookieRequestTest {
                 ()->cProtocol.requestCookie());
 
         verify(phyProtocolMock, times(1)).receive(2000);
-        verify(phyProtocolMock, times(1)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
+        verify(phyProtocolMock, times(1)).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
     }
 
     @Test
@@ -102,7 +111,7 @@ public class CPClientCookieRequestTest {
         assertDoesNotThrow(()->cProtocol.requestCookie());
 
         verify(phyProtocolMock, times(2)).receive(2000);
-        verify(phyProtocolMock, times(2)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
+        verify(phyProtocolMock, times(2)).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
     }
 
     @Test
@@ -120,7 +129,7 @@ public class CPClientCookieRequestTest {
         assertDoesNotThrow(()->cProtocol.requestCookie());
 
         verify(phyProtocolMock, times(2)).receive(2000);
-        verify(phyProtocolMock, times(2)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
+        verify(phyProtocolMock, times(2)).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
     }
 
     @Test
@@ -138,7 +147,7 @@ public class CPClientCookieRequestTest {
         assertDoesNotThrow(()->cProtocol.requestCookie());
 
         verify(phyProtocolMock, times(2)).receive(anyInt());
-        verify(phyProtocolMock, times(2)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
+        verify(phyProtocolMock, times(2)).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
     }
 
     @Test
@@ -150,8 +159,26 @@ public class CPClientCookieRequestTest {
         // Run the test
         assertThrows(CookieRequestException.class,
                 ()->cProtocol.requestCookie());
-        verify(phyProtocolMock, times(3)).receive(2000);
-        verify(phyProtocolMock, times(3)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
+        // the retransmission timeout doubles after every loss
+        verify(phyProtocolMock, times(1)).receive(2000);
+        verify(phyProtocolMock, times(1)).receive(4000);
+        verify(phyProtocolMock, times(1)).receive(8000);
+        verify(phyProtocolMock, times(3)).send(cpMsg("cp cookie_request"), any(PhyConfiguration.class));
     }
 
+
+    @Test
+    void testShardRotationOnTimeout() throws IWProtocolException, IOException {
+        PhyConfiguration shard0 = new PhyConfiguration(InetAddress.getByName(serverName), 3000, Protocol.proto_id.CP);
+        PhyConfiguration shard1 = new PhyConfiguration(InetAddress.getByName(serverName), 3001, Protocol.proto_id.CP);
+        cProtocol.setCookieShards(new ConsistentHashRing(List.of(shard0, shard1)));
+        testMsg = (PhyMsg) testMsg.parse("phy 7 cp cookie_response ACK 12345");
+
+        // the first shard does not answer, the request is repeated at the next one
+        when(phyProtocolMock.receive(anyInt())).thenThrow(new SocketTimeoutException()).thenReturn(testMsg);
+        assertDoesNotThrow(() -> cProtocol.requestCookie());
+
+        verify(phyProtocolMock, times(1)).send(any(Msg.class), eq(shard0));
+        verify(phyProtocolMock, times(1)).send(any(Msg.class), eq(shard1));
+    }
 }
@@ -1,12 +1,16 @@
 package phy;
 
+import core.Msg;
 import core.Protocol;
+import cp.CPCommandMsg;
+import cp.CPCommandResponseMsg;
 import cp.CPProtocol;
 import exceptions.CookieTimeoutException;
 import exceptions.IWProtocolException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -15,6 +19,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.verify;
@@ -178,4 +183,52 @@ public class CPClientPrintCommandTest {
         // verify a specified behavior
         verify(phyProtocolMock, times(2)).receive(2000);
     }
+
+    @Test
+    void testPipelinedResponsesOutOfOrder() throws IWProtocolException, IOException {
+        PhyMsg cookieMsg = (PhyMsg) new PhyMsg(phyConfig).parse("phy 7 cp cookie_response ACK 12345");
+        when(phyProtocolMock.receive(anyInt())).thenReturn(cookieMsg, response(1, true), response(0, false));
+
+        // Run the test: two commands in flight, answered in reverse order
+        cProtocol.setWindow(2);
+        cProtocol.send("status", null);
+        cProtocol.send("status", null);
+        assertFalse(cProtocol.canSend());
+        assertThrows(IllegalStateException.class, () -> cProtocol.send("status", null));
+
+        CPCommandResponseMsg first = (CPCommandResponseMsg) cProtocol.receive();
+        assertEquals(1, first.getId());
+        assertTrue(cProtocol.canSend());
+        // in pipelined mode errors are returned, not thrown
+        CPCommandResponseMsg second = (CPCommandResponseMsg) cProtocol.receive();
+        assertEquals(0, second.getId());
+        assertFalse(second.isSuccess());
+        assertEquals(0, cProtocol.getInFlight());
+    }
+
+    @Test
+    void testPipelinedCommandsHaveOwnTimers() throws Exception {
+        PhyMsg cookieMsg = (PhyMsg) new PhyMsg(phyConfig).parse("phy 7 cp cookie_response ACK 12345");
+        when(phyProtocolMock.receive(anyInt())).thenReturn(cookieMsg, response(1, true), response(0, true));
+
+        // Run the test: command 0 is older than the minimum command timeout that follows the quick answer to command 1
+        cProtocol.setWindow(2);
+        cProtocol.send("status", null);
+        Thread.sleep(1100);
+        cProtocol.send("status", null);
+        assertEquals(1, ((CPCommandResponseMsg) cProtocol.receive()).getId());
+        assertEquals(0, ((CPCommandResponseMsg) cProtocol.receive()).getId());
+
+        // verify a specified behavior: the response to command 1 did not restart the timer of command 0
+        ArgumentCaptor<Msg> sent = ArgumentCaptor.forClass(Msg.class);
+        verify(phyProtocolMock, times(4)).send(sent.capture(), any());
+        CPCommandMsg resent = assertInstanceOf(CPCommandMsg.class, sent.getAllValues().get(3));
+        assertEquals(0, resent.getId());
+    }
+
+    private PhyMsg response(int id, boolean ok) throws IWProtocolException {
+        CPCommandResponseMsg res = new CPCommandResponseMsg();
+        res.create(id, ok, "");
+        return (PhyMsg) new PhyMsg(phyConfig).parse("phy 7 " + new String(res.getDataBytes()));
+    }
 }
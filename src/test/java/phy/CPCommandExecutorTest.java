@@ -0,0 +1,82 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import cp.CPCommandMsg;
+import cp.CPProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CPCommandExecutorTest {
+    @Mock
+    PhyProtocol phyProtocolMock;
+
+    @Test
+    void testVerificationRunsOnExecutor() throws Exception {
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("localhost"), 5000, Protocol.proto_id.CP);
+        PhyConfiguration cookieServer = new PhyConfiguration(InetAddress.getByName("localhost"), 3000, Protocol.proto_id.CP);
+        CPProtocol cp = new CPProtocol(phyProtocolMock, false);
+        cp.setCookieServer(InetAddress.getByName("localhost"), 3000);
+        List<Runnable> tasks = new ArrayList<>();
+        cp.setCommandExecutor(tasks::add);
+
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("status", 0, 4711);
+        cp.dispatchBatch(List.of(new PhyMsg(client).parse("phy 7 " + new String(cmd.getDataBytes()))));
+
+        // the receive loop only dispatched, the verification request is sent by the task
+        assertEquals(1, tasks.size());
+        verify(phyProtocolMock, never()).send(any(Msg.class), any());
+        tasks.get(0).run();
+        verify(phyProtocolMock).send(any(Msg.class), eq(cookieServer));
+    }
+
+    @Test
+    void testRetransmittedCommandRunsOnce() throws Exception {
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("localhost"), 5000, Protocol.proto_id.CP);
+        CPProtocol cp = new CPProtocol(phyProtocolMock, false);
+        cp.setCookieServer(InetAddress.getByName("localhost"), 3000);
+        List<Runnable> tasks = new ArrayList<>();
+        cp.setCommandExecutor(tasks::add);
+
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("print hello", 3, 4711);
+        Msg in = new PhyMsg(client).parse("phy 7 " + new String(cmd.getDataBytes()));
+        cp.dispatchBatch(List.of(in));
+        // the client sends the command again before it was answered -> the copy is dropped
+        cp.dispatchBatch(List.of(in));
+
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    void testTruncatedBatchResponseKeepsBatch() throws Exception {
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("localhost"), 5000, Protocol.proto_id.CP);
+        PhyConfiguration cookieServer = new PhyConfiguration(InetAddress.getByName("localhost"), 3000, Protocol.proto_id.CP);
+        CPProtocol cp = new CPProtocol(phyProtocolMock, false);
+        cp.setCookieServer(InetAddress.getByName("localhost"), 3000);
+        List<Runnable> tasks = new ArrayList<>();
+        cp.setCommandExecutor(tasks::add);
+
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("status", 0, 4711);
+        Msg truncated = new PhyMsg(cookieServer).parse("phy 7 cp cookie_batch_verification_response");
+        Msg in = new PhyMsg(client).parse("phy 7 " + new String(cmd.getDataBytes()));
+
+        // the malformed datagram is skipped, the rest of the batch is still dispatched
+        assertEquals(1, assertDoesNotThrow(() -> cp.dispatchBatch(List.of(truncated, in))).size());
+        assertEquals(1, tasks.size());
+    }
+}
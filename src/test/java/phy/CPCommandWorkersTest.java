@@ -0,0 +1,63 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import cp.CPCommandMsg;
+import cp.CPCookieVerificationRequestMsg;
+import cp.CPCookieVerificationResponseMsg;
+import cp.CPProtocol;
+import exceptions.IWProtocolException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CPCommandWorkersTest {
+    @Mock
+    PhyProtocol firstPhy;
+    @Mock
+    PhyProtocol secondPhy;
+
+    @Test
+    void testVerificationAnsweredOnOtherWorker() throws Exception {
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("localhost"), 5000, Protocol.proto_id.CP);
+        PhyConfiguration cookieServer = new PhyConfiguration(InetAddress.getByName("localhost"), 3000, Protocol.proto_id.CP);
+        CPProtocol first = new CPProtocol(firstPhy, false);
+        first.setCookieServer(InetAddress.getByName("localhost"), 3000);
+        CPProtocol second = new CPProtocol(secondPhy, first);
+
+        // the command arrives at the first worker, which asks the cookie server
+        first.dispatchBatch(List.of(command(client, 0)));
+        ArgumentCaptor<Msg> request = ArgumentCaptor.forClass(Msg.class);
+        verify(firstPhy).send(request.capture(), eq(cookieServer));
+        int id = ((CPCookieVerificationRequestMsg) request.getValue()).getCorrelationId();
+
+        // the result is received by the second worker, which still finds the pending command
+        CPCookieVerificationResponseMsg res = new CPCookieVerificationResponseMsg();
+        res.create(true, 5000, id);
+        second.dispatchBatch(List.of(new PhyMsg(cookieServer).parse("phy 7 " + new String(res.getDataBytes()))));
+        verify(secondPhy).send(any(Msg.class), eq(client));
+
+        // the verified cookie is shared as well: the next command is answered without a verification request
+        second.dispatchBatch(List.of(command(client, 1)));
+        verify(secondPhy, times(2)).send(any(Msg.class), eq(client));
+        verify(secondPhy, never()).send(any(Msg.class), eq(cookieServer));
+        verify(firstPhy, never()).send(any(Msg.class), eq(client));
+    }
+
+    private static Msg command(PhyConfiguration client, int id) throws IWProtocolException {
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("status", id, 4711);
+        return new PhyMsg(client).parse("phy 7 " + new String(cmd.getDataBytes()));
+    }
+}
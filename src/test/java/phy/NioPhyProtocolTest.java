@@ -0,0 +1,44 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioPhyProtocolTest {
+    @Test
+    void testBatchMessagesKeepTheirPayload() throws Exception {
+        NioPhyProtocol receiver = new NioPhyProtocol(47011, true);
+        PhyProtocol sender = new PhyProtocol(47012);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47011, Protocol.proto_id.APP);
+        for (int i = 0; i < 3; i++)
+            sender.send("message " + i, to);
+
+        // the datagrams of one batch share the receive slab, none may overwrite another
+        List<Msg> batch = new ArrayList<>();
+        while (batch.size() < 3)
+            batch.addAll(receiver.receiveBatch(3 - batch.size()));
+        for (int i = 0; i < 3; i++)
+            assertEquals("message " + i, batch.get(i).getData());
+    }
+
+    @Test
+    void testSocketTransportReturnsOneMessagePerBatch() throws Exception {
+        PhyProtocol receiver = new PhyProtocol(47013);
+        PhyProtocol sender = new PhyProtocol(47014);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47013, Protocol.proto_id.APP);
+        sender.send("first", to);
+        sender.send("second", to);
+
+        // a plain DatagramSocket cannot be polled -> one message per call, the rest stays queued
+        assertEquals(List.of("first"), receiver.receiveBatch(64).stream().map(Msg::getData).toList());
+        assertEquals(List.of("second"), receiver.receiveBatch(64).stream().map(Msg::getData).toList());
+        assertThrows(IllegalArgumentException.class, () -> receiver.receiveBatch(0));
+        assertThrows(IllegalArgumentException.class, () -> new NioPhyProtocol(47015).receiveBatch(0));
+    }
+}
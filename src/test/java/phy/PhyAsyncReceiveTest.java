@@ -0,0 +1,65 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhyAsyncReceiveTest {
+    @Test
+    void testDeadlineAndCompletion() throws Exception {
+        PhyProtocol receiver = new PhyProtocol(47031);
+        PhyProtocol sender = new PhyProtocol(47032);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47031, Protocol.proto_id.APP);
+
+        // nothing sent -> the deadline completes the future
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> receiver.receiveAsync(50).get(2, TimeUnit.SECONDS));
+        assertInstanceOf(SocketTimeoutException.class, e.getCause());
+
+        // outstanding futures are completed in the order they were requested
+        CompletableFuture<Msg> first = receiver.receiveAsync(2000);
+        CompletableFuture<Msg> second = receiver.receiveAsync(0);
+        sender.send("one", to);
+        sender.send("two", to);
+        assertEquals("one", first.get(2, TimeUnit.SECONDS).getData());
+        assertEquals("two", second.get(2, TimeUnit.SECONDS).getData());
+
+        // a message arriving while nobody waits is kept for the next call
+        sender.send("three", to);
+        Thread.sleep(100);
+        assertEquals("three", receiver.receiveAsync(0).get(2, TimeUnit.SECONDS).getData());
+
+        // ... but not longer than INBOX_MAX_AGE, a later wait does not get it
+        sender.send("stale", to);
+        Thread.sleep(PhyAsyncReceiver.INBOX_MAX_AGE + 100);
+        e = assertThrows(ExecutionException.class, () -> receiver.receiveAsync(50).get(2, TimeUnit.SECONDS));
+        assertInstanceOf(SocketTimeoutException.class, e.getCause());
+    }
+
+    @Test
+    void testDeadlineCancelledOnMessage() throws Exception {
+        PhyProtocol receiver = new PhyProtocol(47033);
+        PhyProtocol sender = new PhyProtocol(47034);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47033, Protocol.proto_id.APP);
+
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<Msg> f = receiver.receiveAsync(60000);
+            sender.send("m" + i, to);
+            assertEquals("m" + i, f.get(2, TimeUnit.SECONDS).getData());
+        }
+        // the deadlines of the answered futures do not stay in the timer (the last one is cancelled right after get())
+        ScheduledThreadPoolExecutor timer = (ScheduledThreadPoolExecutor) PhyAsyncReceiver.TIMER;
+        for (int i = 0; i < 100 && !timer.getQueue().isEmpty(); i++)
+            Thread.sleep(10);
+        assertEquals(0, timer.getQueue().size());
+    }
+}
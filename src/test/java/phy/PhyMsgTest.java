@@ -1,13 +1,16 @@
 package phy;
 
 import core.Protocol;
+import exceptions.IllegalMsgException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class PhyMsgTest {
     @Test
@@ -26,4 +29,27 @@ public class PhyMsgTest {
 
         assertEquals("phy 3 Hello World", new String(msg.getDataBytes()));
     }
+
+    @Test
+    @DisplayName("Parse message from a byte range test")
+    void parseByteRangeTest() throws IllegalMsgException {
+        byte[] buf = new byte[64];
+        byte[] frame = "phy 7 cp cookie_request".getBytes();
+        System.arraycopy(frame, 0, buf, 5, frame.length);
+        buf[0] = 'x'; // garbage outside of the datagram must be ignored
+
+        PhyMsg msg = (PhyMsg) new PhyMsg().parse(buf, 5, frame.length);
+
+        assertEquals(Protocol.proto_id.CP, msg.getPid());
+        assertEquals("cp cookie_request", msg.getData());
+        assertEquals("cp cookie_request", StandardCharsets.US_ASCII.decode(msg.getPayload()).toString());
+        assertEquals("phy 7 cp cookie_request", new String(msg.getDataBytes()));
+    }
+
+    @Test
+    @DisplayName("Parse message without payload test")
+    void parseMissingPayloadTest() {
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy 7  "));
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy x cp"));
+    }
 }
@@ -0,0 +1,57 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhyReactorTest {
+    @Test
+    void testEndpointsAreServedByOneThread() throws Exception {
+        PhyReactor reactor = new PhyReactor(8);
+        NioPhyProtocol first = new NioPhyProtocol(47021);
+        NioPhyProtocol second = new NioPhyProtocol(47022);
+        List<String> received = new CopyOnWriteArrayList<>();
+        ConcurrentHashMap.KeySetView<Thread, Boolean> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(4);
+        PhyReactor.Handler handler = batch -> {
+            threads.add(Thread.currentThread());
+            for (Msg m : batch) {
+                received.add(m.getData());
+                done.countDown();
+            }
+        };
+        reactor.register(first, handler);
+        reactor.register(second, handler);
+        Thread loop = new Thread(reactor, "reactor");
+        loop.start();
+
+        PhyProtocol sender = new PhyProtocol(47023);
+        InetAddress localhost = InetAddress.getByName("localhost");
+        sender.send("a1", new PhyConfiguration(localhost, 47021, Protocol.proto_id.APP));
+        sender.send("b1", new PhyConfiguration(localhost, 47022, Protocol.proto_id.APP));
+        sender.send("a2", new PhyConfiguration(localhost, 47021, Protocol.proto_id.APP));
+        sender.send("b2", new PhyConfiguration(localhost, 47022, Protocol.proto_id.APP));
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        reactor.stop();
+        loop.join(2000);
+        assertFalse(loop.isAlive());
+        assertEquals(List.of("a1", "a2"), received.stream().filter(s -> s.startsWith("a")).toList());
+        assertEquals(List.of("b1", "b2"), received.stream().filter(s -> s.startsWith("b")).toList());
+        assertEquals(1, threads.size());
+    }
+
+    @Test
+    void testInvalidBatchSize() {
+        assertThrows(IllegalArgumentException.class, () -> new PhyReactor(0));
+    }
+}
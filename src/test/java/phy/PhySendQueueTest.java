@@ -0,0 +1,82 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import cp.CPCommandMsg;
+import cp.CPProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PhySendQueueTest {
+    @Mock
+    PhyProtocol phyProtocolMock;
+
+    @Test
+    void testQueuedUntilFlush() throws Exception {
+        List<String> transmitted = new ArrayList<>();
+        PhyProtocol phy = new PhyProtocol(47041) {
+            @Override
+            protected void transmit(ByteBuffer frame, PhyConfiguration to) {
+                transmitted.add(StandardCharsets.UTF_8.decode(frame.duplicate()).toString());
+            }
+        };
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47042, Protocol.proto_id.APP);
+
+        phy.beginBatch();
+        phy.send("one", to);
+        phy.send("two", to);
+        assertEquals(0, transmitted.size());
+        phy.flush();
+        assertEquals(List.of("phy 3 one", "phy 3 two"), transmitted);
+        phy.send("three", to);
+        phy.endBatch();
+        assertEquals("phy 3 three", transmitted.get(2));
+        // batch closed -> sent right away
+        phy.send("four", to);
+        assertEquals(4, transmitted.size());
+    }
+
+    @Test
+    void testResponsesOfOneReceiveBatchAreSentTogether() throws Exception {
+        PhyConfiguration client = new PhyConfiguration(InetAddress.getByName("localhost"), 5000, Protocol.proto_id.CP);
+        CPProtocol cookieServer = new CPProtocol(phyProtocolMock, true);
+        List<Msg> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            batch.add(new PhyMsg(client).parse("phy 7 cp cookie_request"));
+
+        cookieServer.dispatchBatch(batch);
+
+        // one batch around all three responses
+        InOrder order = inOrder(phyProtocolMock);
+        order.verify(phyProtocolMock).beginBatch();
+        order.verify(phyProtocolMock, times(3)).send(any(Msg.class), any());
+        order.verify(phyProtocolMock).endBatch();
+        verify(phyProtocolMock, times(1)).beginBatch();
+    }
+
+    @Test
+    void testOversizedMessageIsRejected() throws Exception {
+        PhyProtocol phy = new PhyProtocol(47043);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getByName("localhost"), 47044, Protocol.proto_id.CP);
+        CPCommandMsg cmd = new CPCommandMsg();
+        cmd.create("print " + "x".repeat(2000), 0, 4711);
+
+        assertThrows(IOException.class, () -> phy.send(cmd, to));
+        assertThrows(IOException.class, () -> phy.send("x".repeat(2000), to));
+    }
+}